@@ -6,10 +6,15 @@ import java.util.List;
 import java.util.Map;
 
 import org.vaadin.vrapper.model.EventHandlerMethodAction;
+import org.vaadin.vrapper.model.EventHandlerMethodAction.DeliveryMode;
 import org.vaadin.vrapper.model.reflect.ApiMethod;
 import org.vaadin.vrapper.model.reflect.ApiType;
 import org.vaadin.vrapper.model.reflect.ClassType;
 
+import com.vaadin.data.Property.ValueChangeEvent;
+import com.vaadin.data.Property.ValueChangeListener;
+import com.vaadin.data.validator.IntegerRangeValidator;
+import com.vaadin.ui.NativeSelect;
 import com.vaadin.ui.TextField;
 
 public class EventHandlerMethodActionConfigForm extends
@@ -20,6 +25,14 @@ public class EventHandlerMethodActionConfigForm extends
     private final TextField rpcInterfaceName = new TextField(
             "Rpc interface name");
 
+    private final NativeSelect deliveryMode = new NativeSelect(
+            "Send events to server");
+
+    private final TextField interval = new TextField("Interval (ms)");
+
+    private final TextField maxEvents = new TextField(
+            "Max events per interval");
+
     public EventHandlerMethodActionConfigForm(EventHandlerMethodAction action,
             ClassType widgetType) {
         super(EventHandlerMethodAction.class, action);
@@ -60,7 +73,49 @@ public class EventHandlerMethodActionConfigForm extends
             }
         }
 
-        addComponents(customParameters, rpcInterfaceName);
+        // The action doesn't accept other values
+        interval.addValidator(new IntegerRangeValidator(
+                "Interval must be positive", Integer.valueOf(1), null));
+        maxEvents.addValidator(new IntegerRangeValidator(
+                "Max events must be positive", Integer.valueOf(1), null));
+
+        deliveryMode.setNullSelectionAllowed(false);
+        deliveryMode.addItem(DeliveryMode.IMMEDIATE);
+        deliveryMode.setItemCaption(DeliveryMode.IMMEDIATE, "Immediately");
+        deliveryMode.addItem(DeliveryMode.THROTTLED);
+        deliveryMode.setItemCaption(DeliveryMode.THROTTLED,
+                "At most max events per interval");
+        deliveryMode.addItem(DeliveryMode.DEBOUNCED);
+        deliveryMode.setItemCaption(DeliveryMode.DEBOUNCED,
+                "When there are no events during the interval");
+        deliveryMode.addItem(DeliveryMode.LAST_VALUE_ONLY);
+        deliveryMode.setItemCaption(DeliveryMode.LAST_VALUE_ONLY,
+                "Only the last event with the next request");
+        deliveryMode.addItem(DeliveryMode.BATCHED);
+        deliveryMode.setItemCaption(DeliveryMode.BATCHED,
+                "All events, queued and sent together");
+        deliveryMode.addValueChangeListener(new ValueChangeListener() {
+            @Override
+            public void valueChange(ValueChangeEvent event) {
+                updateTimingFields();
+            }
+        });
+
+        addComponents(customParameters, rpcInterfaceName, deliveryMode,
+                interval, maxEvents);
+    }
+
+    private void updateTimingFields() {
+        Object mode = deliveryMode.getValue();
+        interval.setEnabled(mode == DeliveryMode.THROTTLED
+                || mode == DeliveryMode.DEBOUNCED);
+        maxEvents.setEnabled(mode == DeliveryMode.THROTTLED);
+    }
+
+    @Override
+    public void bind(ValueChangeListener changeListener) {
+        super.bind(changeListener);
+        updateTimingFields();
     }
 
 }
@@ -1,9 +1,9 @@
 package org.vaadin.vrapper;
 
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
+import org.vaadin.vrapper.model.ActionCodeCache;
 import org.vaadin.vrapper.model.ClientRpcMethodAction;
 import org.vaadin.vrapper.model.EventHandlerMethodAction;
 import org.vaadin.vrapper.model.MethodAction;
@@ -11,8 +11,6 @@ import org.vaadin.vrapper.model.MethodAction.Status;
 import org.vaadin.vrapper.model.MethodConfiguration;
 import org.vaadin.vrapper.model.ResouceUrlMethodAction;
 import org.vaadin.vrapper.model.StateFieldMethodAction;
-import org.vaadin.vrapper.model.codegen.AbstractCodeGenerator;
-import org.vaadin.vrapper.model.codegen.Code;
 
 import com.vaadin.data.Property.ValueChangeEvent;
 import com.vaadin.data.Property.ValueChangeListener;
@@ -86,6 +84,8 @@ public class MethodConfigurator extends CustomComponent {
 
     private MethodConfiguration methodConfiguration;
 
+    private ActionCodeCache codeCache;
+
     public MethodConfigurator(WidgetConfigurator widgetConfigurator) {
         this.widgetConfigurator = widgetConfigurator;
 
@@ -211,41 +211,21 @@ public class MethodConfigurator extends CustomComponent {
     }
 
     public void updateCode() {
-        Code code = new Code(widgetConfigurator.getWidgetConfiguration());
-        MethodAction action = getCurrentAction();
-        if (action != null) {
-            action.writeCode(code);
-        } else {
-            code.getConnectorCode();
-        }
-
-        StringBuilder b = new StringBuilder();
+        String code = getCodeCache().getCode(getCurrentAction(),
+                previewBox.getValue().booleanValue());
 
-        List<AbstractCodeGenerator> classes = code.getClasses();
-        Collections.sort(classes, new Comparator<AbstractCodeGenerator>() {
-            @Override
-            public int compare(AbstractCodeGenerator o1,
-                    AbstractCodeGenerator o2) {
-                return o2.getType().getClassName()
-                        .compareTo(o1.getType().getClassName());
-            }
-        });
-
-        boolean first = true;
-        for (AbstractCodeGenerator generator : classes) {
-            String generated = generator.generateCode(previewBox.getValue()
-                    .booleanValue());
-            if (generated != null) {
-                if (!first) {
-                    b.append("\n\n");
-                }
-
-                b.append(generated);
-                first = false;
-            }
+        // Don't send the same code to the browser again
+        if (!code.equals(codeViewer.getValue())) {
+            codeViewer.setValue(code);
         }
+    }
 
-        codeViewer.setValue(b.toString());
+    private ActionCodeCache getCodeCache() {
+        if (codeCache == null) {
+            codeCache = new ActionCodeCache(
+                    widgetConfigurator.getWidgetConfiguration());
+        }
+        return codeCache;
     }
 
     private MethodAction getCurrentAction() {
@@ -1,5 +1,6 @@
 package org.vaadin.vrapper;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -337,8 +338,12 @@ public class MethodParamListField extends
                         public void buttonClick(ClickEvent event) {
                             CustomMethodParameter value = editor.getValue();
                             if (value != null) {
-                                getInternalValue().add(value);
-                                fireValueChange(true);
+                                // Set a new list so that the change reaches
+                                // the data source
+                                List<CustomMethodParameter> newValue = new ArrayList<CustomMethodParameter>(
+                                        getInternalValue());
+                                newValue.add(value);
+                                setValue(newValue);
                             }
                             updateUi();
                             addDialog.getUI().removeWindow(addDialog);
@@ -371,9 +376,10 @@ public class MethodParamListField extends
                         new Button.ClickListener() {
                             @Override
                             public void buttonClick(ClickEvent event) {
-                                value.remove(customMethodParameter);
-                                fireValueChange(true);
-                                layout.removeComponent(row);
+                                List<CustomMethodParameter> newValue = new ArrayList<CustomMethodParameter>(
+                                        value);
+                                newValue.remove(customMethodParameter);
+                                setValue(newValue);
                             }
                         });
                 removeButton.setStyleName(Reindeer.BUTTON_LINK);
@@ -0,0 +1,86 @@
+package org.vaadin.vrapper;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.vaadin.vrapper.model.WidgetConfiguration;
+import org.vaadin.vrapper.model.codegen.AbstractCodeGenerator;
+
+import com.vaadin.server.ConnectorResource;
+import com.vaadin.server.DownloadStream;
+import com.vaadin.server.VaadinSession;
+
+/**
+ * A zip file with the generated classes of a widget, each in its own
+ * <code>package/Class.java</code> entry. The classes are written into the zip
+ * one at a time while the response is being sent, so the sources are never
+ * all kept in memory. The session is locked while each class is written,
+ * since the code generators read the configuration of the widget.
+ */
+public class SourceZipResource implements ConnectorResource {
+
+    private static class SourceZipStream extends StreamedDownloadStream {
+        private final transient List<AbstractCodeGenerator> classes;
+        private final transient Lock lock;
+
+        private SourceZipStream(List<AbstractCodeGenerator> classes,
+                Lock lock, String fileName) {
+            super(MIME_TYPE, fileName);
+            this.classes = classes;
+            this.lock = lock;
+        }
+
+        @Override
+        protected void writeContent(OutputStream out) throws IOException {
+            ZipOutputStream zip = new ZipOutputStream(out);
+            Writer writer = new BufferedWriter(new OutputStreamWriter(zip,
+                    "UTF-8"));
+            for (AbstractCodeGenerator codeGenerator : classes) {
+                zip.putNextEntry(new ZipEntry(codeGenerator.getSourcePath()));
+                lock.lock();
+                try {
+                    codeGenerator.writeCode(writer, false);
+                } finally {
+                    lock.unlock();
+                }
+                writer.flush();
+                zip.closeEntry();
+            }
+            zip.finish();
+        }
+    }
+
+    private static final String MIME_TYPE = "application/zip";
+
+    private final WidgetConfiguration configuration;
+
+    public SourceZipResource(WidgetConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    @Override
+    public String getMIMEType() {
+        return MIME_TYPE;
+    }
+
+    @Override
+    public DownloadStream getStream() {
+        // Called while the session is locked
+        return new SourceZipStream(configuration.buildCode().getClasses(),
+                VaadinSession.getCurrent().getLockInstance(), getFilename());
+    }
+
+    @Override
+    public String getFilename() {
+        return configuration.getComponentCodeConfiguration().getClassName()
+                + "-sources.zip";
+    }
+
+}
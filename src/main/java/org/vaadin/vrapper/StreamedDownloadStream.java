@@ -0,0 +1,50 @@
+package org.vaadin.vrapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import com.vaadin.server.DownloadStream;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinResponse;
+
+/**
+ * Download that is written directly to the response instead of being read
+ * from an input stream. The response is written after the session has been
+ * unlocked.
+ */
+abstract class StreamedDownloadStream extends DownloadStream {
+
+    StreamedDownloadStream(String contentType, String fileName) {
+        super(null, contentType, fileName);
+        setCacheTime(0);
+    }
+
+    @Override
+    public void writeResponse(VaadinRequest request, VaadinResponse response)
+            throws IOException {
+        response.setContentType(getContentType());
+        response.setCacheTime(getCacheTime());
+
+        Iterator<String> parameterNames = getParameterNames();
+        if (parameterNames != null) {
+            while (parameterNames.hasNext()) {
+                String name = parameterNames.next();
+                response.setHeader(name, getParameter(name));
+            }
+        }
+        if (getParameter("Content-Disposition") == null) {
+            response.setHeader("Content-Disposition", "filename=\""
+                    + getFileName() + "\"");
+        }
+
+        OutputStream out = response.getOutputStream();
+        try {
+            writeContent(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    protected abstract void writeContent(OutputStream out) throws IOException;
+}
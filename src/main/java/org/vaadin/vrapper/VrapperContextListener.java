@@ -0,0 +1,24 @@
+package org.vaadin.vrapper;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import org.vaadin.vrapper.compiler.WrapperCompiler;
+
+/**
+ * Releases the resources shared by all sessions when the web application is
+ * stopped or redeployed.
+ */
+public class VrapperContextListener implements ServletContextListener {
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        // Everything is created when first needed
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        VrapperUI.releaseSharedResources(event.getServletContext());
+        WrapperCompiler.closeFileManagers();
+    }
+}
@@ -5,37 +5,48 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.Collections;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletContext;
 
 import org.apache.commons.io.IOUtils;
 import org.objectweb.asm.Type;
+import org.vaadin.vrapper.model.JarCache;
+import org.vaadin.vrapper.model.JarCache.CachedJar;
 import org.vaadin.vrapper.model.WidgetConfiguration;
+import org.vaadin.vrapper.model.WidgetScanner;
+import org.vaadin.vrapper.model.reflect.ClassIndex;
 import org.vaadin.vrapper.model.reflect.ClassType;
 import org.vaadin.vrapper.model.reflect.ClasspathResolver;
 import org.vaadin.vrapper.model.reflect.ListResolver;
 import org.vaadin.vrapper.model.reflect.Resolver;
 import org.vaadin.vrapper.model.reflect.TypeSource;
-import org.vaadin.vrapper.model.reflect.ZipResolver;
 
 import com.vaadin.data.Property.ValueChangeEvent;
 import com.vaadin.data.Property.ValueChangeListener;
 import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinServlet;
 import com.vaadin.ui.Button;
 import com.vaadin.ui.Button.ClickEvent;
 import com.vaadin.ui.Label;
 import com.vaadin.ui.NativeSelect;
 import com.vaadin.ui.Notification;
+import com.vaadin.ui.ProgressBar;
 import com.vaadin.ui.UI;
 import com.vaadin.ui.Upload;
 import com.vaadin.ui.Upload.FailedEvent;
 import com.vaadin.ui.Upload.FailedListener;
-import com.vaadin.ui.Upload.FinishedEvent;
-import com.vaadin.ui.Upload.FinishedListener;
 import com.vaadin.ui.Upload.Receiver;
+import com.vaadin.ui.Upload.SucceededEvent;
+import com.vaadin.ui.Upload.SucceededListener;
 import com.vaadin.ui.VerticalLayout;
 
 /*
@@ -51,12 +62,32 @@ import com.vaadin.ui.VerticalLayout;
  * - Multi-value setters using a bean instead of multiple fields in the state
  * - Option to generate EventRouter code for server-side event handling
  * 
- * - Jar download, requires integrating a compiler
- *  
  */
 @SuppressWarnings("serial")
 public class VrapperUI extends UI {
 
+    private static final String PLATFORM_TYPES_ATTRIBUTE = VrapperUI.class
+            .getName() + ".platformTypes";
+
+    private static final String SCAN_EXECUTOR_ATTRIBUTE = VrapperUI.class
+            .getName() + ".scanExecutor";
+
+    private static final String JAR_CACHE_ATTRIBUTE = VrapperUI.class
+            .getName() + ".jarCache";
+
+    // Unused uploaded jars are kept until they take more space than this
+    private static final long JAR_CACHE_BYTES = 256L * 1024 * 1024;
+
+    private static final int SCAN_THREADS = Runtime.getRuntime()
+            .availableProcessors();
+
+    // Milliseconds between the polls for scan progress
+    private static final int SCAN_POLL_INTERVAL = 500;
+
+    private WidgetScanner.Scan currentScan;
+
+    private boolean scanStopped = false;
+
     @Override
     protected void init(VaadinRequest request) {
         try {
@@ -74,7 +105,6 @@ public class VrapperUI extends UI {
         if (ownResolver != null) {
             resolvers.add(ownResolver);
         }
-        resolvers.add(new ClasspathResolver());
 
         final ListResolver listResolver = new ListResolver(resolvers);
         addDetachListener(new DetachListener() {
@@ -95,6 +125,8 @@ public class VrapperUI extends UI {
 
     private File currentUploadFile = null;
 
+    private transient MessageDigest currentUploadDigest = null;
+
     private void showJarUpload() {
         final Upload upload = new Upload();
         upload.setCaption("Upload jar with widget");
@@ -114,7 +146,10 @@ public class VrapperUI extends UI {
 
                     System.out.println(currentUploadFile.getAbsolutePath());
 
-                    return new FileOutputStream(currentUploadFile);
+                    // Hashed while streaming to find an identical cached jar
+                    currentUploadDigest = ClassIndex.createDigest();
+                    return new DigestOutputStream(new FileOutputStream(
+                            currentUploadFile), currentUploadDigest);
                 } catch (IOException e) {
                     Notification.show("Could not create temporary file");
                     return null;
@@ -122,12 +157,15 @@ public class VrapperUI extends UI {
             }
         });
 
-        upload.addFinishedListener(new FinishedListener() {
+        // Failed uploads are cleaned up by the failed listener
+        upload.addSucceededListener(new SucceededListener() {
             @Override
-            public void uploadFinished(FinishedEvent event) {
+            public void uploadSucceeded(SucceededEvent event) {
                 File uploadedFile = currentUploadFile;
+                String hash = ClassIndex.toHex(currentUploadDigest.digest());
                 currentUploadFile = null;
-                handleUploadedFile(uploadedFile);
+                currentUploadDigest = null;
+                handleUploadedFile(uploadedFile, hash);
             }
         });
 
@@ -135,7 +173,11 @@ public class VrapperUI extends UI {
             @Override
             public void uploadFailed(FailedEvent event) {
                 Notification.show("Upload failed, please try again");
+                if (currentUploadFile != null) {
+                    currentUploadFile.delete();
+                }
                 currentUploadFile = null;
+                currentUploadDigest = null;
             }
         });
 
@@ -145,7 +187,9 @@ public class VrapperUI extends UI {
                     public void buttonClick(ClickEvent event) {
                         try {
                             showWidgetConfigurator(
-                                    createResolver(null),
+                                    new TypeSource(createResolver(null), null,
+                                            getPlatformTypes()),
+                                    Collections.<File> emptyList(),
                                     Type.getObjectType("com/google/gwt/user/client/ui/HTML"));
                         } catch (IOException e) {
                             throw new RuntimeException(e);
@@ -158,101 +202,325 @@ public class VrapperUI extends UI {
         setContent(layout);
     }
 
-    private void handleUploadedFile(final File uploadedFile) {
-        try {
-            ZipFile uploadedZip = new ZipFile(uploadedFile);
-            ZipResolver zipResolver = new ZipResolver(uploadedZip) {
-                @Override
-                public void close() throws IOException {
-                    System.out.println("Closing and deleting temp file "
-                            + uploadedFile);
-                    super.close();
-                    uploadedFile.delete();
-                }
-            };
-            Resolver resolver = createResolver(zipResolver);
-            showTypeSelector(resolver, uploadedZip);
-        } catch (IOException e) {
-            Notification.show(e.getLocalizedMessage(),
-                    Notification.Type.ERROR_MESSAGE);
-        }
+    private void handleUploadedFile(File uploadedFile, String hash) {
+        final JarCache jarCache = getJarCache(VaadinServlet.getCurrent()
+                .getServletContext());
+        final CachedJar jar = jarCache.acquire(hash, uploadedFile);
+        addDetachListener(new DetachListener() {
+            @Override
+            public void detach(DetachEvent event) {
+                jarCache.release(jar);
+            }
+        });
+        showTypeSelector(jar);
     }
 
-    private void showTypeSelector(final Resolver resolver, ZipFile zipFile) {
-        TypeSource typeSource = new TypeSource(resolver);
+    /*
+     * Indexes and scans the jar in the background, so that the session is
+     * not locked while doing it. Found widgets are added to the selector as
+     * they are found, and the browser polls for them until the scan is done.
+     * A jar that has already been scanned for someone else is shown right
+     * away.
+     */
+    private void showTypeSelector(final CachedJar jar) {
+        final List<File> libraries = Collections.singletonList(jar.getFile());
+        final ServletContext context = VaadinServlet.getCurrent()
+                .getServletContext();
+
+        final ProgressBar progressBar = new ProgressBar();
+        progressBar.setIndeterminate(true);
+        progressBar.setWidth("300px");
+        final Label statusLabel = new Label("Indexing the jar");
+        final NativeSelect typeSelector = new NativeSelect("Select widget");
+        typeSelector.setImmediate(true);
+        final Button stopButton = new Button("Stop scanning",
+                new Button.ClickListener() {
+                    @Override
+                    public void buttonClick(ClickEvent event) {
+                        stopScan();
+                        progressBar.setVisible(false);
+                        event.getButton().setVisible(false);
+                        statusLabel.setValue("Scanning stopped, found "
+                                + typeSelector.size() + " widgets");
+                    }
+                });
 
-        List<Type> widgetTypes = new ArrayList<Type>();
+        VerticalLayout layout = new VerticalLayout(progressBar, statusLabel,
+                typeSelector, stopButton);
+        layout.setSpacing(true);
+        layout.setMargin(true);
+        setContent(layout);
+
+        List<Type> widgetTypes = jar.getWidgetTypes();
+        if (widgetTypes != null) {
+            try {
+                // Already indexed when the widgets are known
+                addTypeSelectionListener(typeSelector,
+                        jar.getTypeSource(getPlatformTypes(context)),
+                        libraries);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            for (Type widgetType : widgetTypes) {
+                typeSelector.addItem(widgetType);
+            }
+            progressBar.setVisible(false);
+            stopButton.setVisible(false);
+            statusLabel.setValue("Found " + widgetTypes.size() + " widgets");
+            return;
+        }
 
-        Enumeration<? extends ZipEntry> entries = zipFile.entries();
-        while (entries.hasMoreElements()) {
-            ZipEntry zipEntry = entries.nextElement();
-            String name = zipEntry.getName();
-            if (name.endsWith(".class")) {
-                String internalName = name.substring(0, name.length() - 6);
-                Type type = Type.getObjectType(internalName);
-                ClassType classType = (ClassType) typeSource
-                        .getTypeByInternalName(type.getDescriptor());
+        final ExecutorService executor = getScanExecutor(context);
+        setPollInterval(SCAN_POLL_INTERVAL);
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                final TypeSource typeSource;
                 try {
-                    if (classType.isPublic() && !classType.isAbstract()
-                            && isWidgetType(classType)) {
-                        widgetTypes.add(type);
-                    }
-                } catch (Exception e) {
-                    System.out.println("Ignoring " + classType.getClassName());
+                    // Types loaded while scanning are reused by the
+                    // configurator
+                    typeSource = jar.getTypeSource(getPlatformTypes(context));
+                } catch (final IOException e) {
+                    access(new Runnable() {
+                        @Override
+                        public void run() {
+                            setPollInterval(-1);
+                            progressBar.setVisible(false);
+                            stopButton.setVisible(false);
+                            statusLabel.setValue("Could not index the jar");
+                            Notification.show(e.getLocalizedMessage(),
+                                    Notification.Type.ERROR_MESSAGE);
+                        }
+                    });
+                    return;
                 }
+
+                access(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (scanStopped) {
+                            return;
+                        }
+                        addTypeSelectionListener(typeSelector, typeSource,
+                                libraries);
+                        startScan(jar, new WidgetScanner(typeSource),
+                                executor, progressBar, statusLabel,
+                                typeSelector, stopButton);
+                    }
+                });
             }
-        }
+        });
+    }
 
-        final NativeSelect typeSelector = new NativeSelect("Select widget",
-                widgetTypes);
-        typeSelector.setImmediate(true);
+    private void addTypeSelectionListener(final NativeSelect typeSelector,
+            final TypeSource typeSource, final List<File> libraries) {
         typeSelector.addValueChangeListener(new ValueChangeListener() {
             @Override
             public void valueChange(ValueChangeEvent event) {
                 Type selectedType = (Type) typeSelector.getValue();
                 if (selectedType != null) {
-                    showWidgetConfigurator(resolver, selectedType);
+                    stopScan();
+                    showWidgetConfigurator(typeSource, libraries,
+                            selectedType);
                 }
             }
         });
+    }
+
+    private void startScan(final CachedJar jar, WidgetScanner scanner,
+            ExecutorService executor, final ProgressBar progressBar, final Label statusLabel,
+            final NativeSelect typeSelector, final Button stopButton) {
+        final int classCount = scanner.getClassCount();
+        progressBar.setIndeterminate(false);
+        progressBar.setValue(Float.valueOf(0));
+        statusLabel.setValue("Scanning " + classCount + " classes");
+
+        currentScan = scanner.startScan(executor, SCAN_THREADS,
+                new WidgetScanner.ScanListener() {
+                    // Only used while holding the session lock
+                    private int scannedClasses = 0;
+
+                    @Override
+                    public void classesScanned(final List<Type> widgetTypes,
+                            final int count) {
+                        access(new Runnable() {
+                            @Override
+                            public void run() {
+                                scannedClasses += count;
+                                for (Type widgetType : widgetTypes) {
+                                    typeSelector.addItem(widgetType);
+                                }
+                                progressBar.setValue(Float
+                                        .valueOf((float) scannedClasses
+                                                / classCount));
+                                statusLabel.setValue(String.format(
+                                        "Scanned %d of %d classes, found %d widgets",
+                                        Integer.valueOf(scannedClasses),
+                                        Integer.valueOf(classCount),
+                                        Integer.valueOf(typeSelector.size())));
+                            }
+                        });
+                    }
 
-        setContent(typeSelector);
+                    @Override
+                    public void scanFinished(final List<Type> widgetTypes) {
+                        access(new Runnable() {
+                            @Override
+                            public void run() {
+                                currentScan = null;
+                                setPollInterval(-1);
+                                jar.setWidgetTypes(widgetTypes);
+                                // Shown in jar order like for a cached jar
+                                typeSelector.removeAllItems();
+                                for (Type widgetType : widgetTypes) {
+                                    typeSelector.addItem(widgetType);
+                                }
+                                progressBar.setVisible(false);
+                                stopButton.setVisible(false);
+                                statusLabel.setValue(String.format(
+                                        "Found %d widgets in %d classes",
+                                        Integer.valueOf(widgetTypes.size()),
+                                        Integer.valueOf(classCount)));
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void scanFailed(final Throwable failure) {
+                        access(new Runnable() {
+                            @Override
+                            public void run() {
+                                currentScan = null;
+                                setPollInterval(-1);
+                                progressBar.setVisible(false);
+                                stopButton.setVisible(false);
+                                statusLabel.setValue("Scanning failed, found "
+                                        + typeSelector.size() + " widgets");
+                                Notification.show("Could not scan the jar",
+                                        failure.getLocalizedMessage(),
+                                        Notification.Type.ERROR_MESSAGE);
+                            }
+                        });
+                    }
+                });
     }
 
-    private boolean isWidgetType(ClassType type) {
-        if (type.getClassName().equals("com.google.gwt.user.client.ui.Widget")) {
-            return true;
-        } else {
-            try {
-                ClassType superType = type.getSuperType();
-                if (superType == null) {
-                    return false;
-                } else {
-                    return isWidgetType(superType);
-                }
-            } catch (Exception e) {
-                System.out.println("Could not find superclass for "
-                        + type.getClassName());
-                return false;
-            }
+    /**
+     * Stops scanning the uploaded jar, both if the jar is still being indexed
+     * and if its classes are being scanned.
+     */
+    private void stopScan() {
+        scanStopped = true;
+        if (currentScan != null) {
+            currentScan.cancel();
+            currentScan = null;
         }
+        setPollInterval(-1);
     }
 
-    private void showWidgetConfigurator(Resolver resolver, Type widgetType) {
-        TypeSource typeSource = new TypeSource(resolver);
-
+    private void showWidgetConfigurator(TypeSource typeSource,
+            List<File> libraries, Type widgetType) {
         ClassType widgetClass = (ClassType) typeSource
                 .getTypeByInternalName(widgetType.getDescriptor());
 
-        WidgetConfiguration configuration = new WidgetConfiguration(widgetClass);
+        WidgetConfiguration configuration = new WidgetConfiguration(
+                widgetClass, typeSource);
 
         WidgetConfigurator widgetConfigurator = new WidgetConfigurator(
-                configuration);
+                configuration, libraries);
         setContent(widgetConfigurator);
     }
 
+    /**
+     * Gets the types from the Vaadin and GWT classpath, shared by all sessions
+     * in the servlet context so that they are only loaded once.
+     */
+    private static TypeSource getPlatformTypes() {
+        return getPlatformTypes(VaadinServlet.getCurrent().getServletContext());
+    }
+
+    private static TypeSource getPlatformTypes(ServletContext context) {
+        synchronized (context) {
+            TypeSource platformTypes = (TypeSource) context
+                    .getAttribute(PLATFORM_TYPES_ATTRIBUTE);
+            if (platformTypes == null) {
+                platformTypes = TypeSource
+                        .createPlatformTypes(new ClasspathResolver());
+                context.setAttribute(PLATFORM_TYPES_ATTRIBUTE, platformTypes);
+            }
+            return platformTypes;
+        }
+    }
+
+    /**
+     * Stops the scanning threads and removes the uploaded jars shared by all
+     * sessions in the servlet context. Called when the context is destroyed.
+     */
+    static void releaseSharedResources(ServletContext context) {
+        synchronized (context) {
+            ExecutorService executor = (ExecutorService) context
+                    .getAttribute(SCAN_EXECUTOR_ATTRIBUTE);
+            if (executor != null) {
+                executor.shutdownNow();
+                context.removeAttribute(SCAN_EXECUTOR_ATTRIBUTE);
+            }
+
+            JarCache jarCache = (JarCache) context
+                    .getAttribute(JAR_CACHE_ATTRIBUTE);
+            if (jarCache != null) {
+                jarCache.close();
+                context.removeAttribute(JAR_CACHE_ATTRIBUTE);
+            }
+        }
+    }
+
+    /**
+     * Gets the uploaded jars shared by all sessions in the servlet context.
+     */
+    private static JarCache getJarCache(ServletContext context) {
+        synchronized (context) {
+            JarCache jarCache = (JarCache) context
+                    .getAttribute(JAR_CACHE_ATTRIBUTE);
+            if (jarCache == null) {
+                jarCache = new JarCache(JAR_CACHE_BYTES);
+                context.setAttribute(JAR_CACHE_ATTRIBUTE, jarCache);
+            }
+            return jarCache;
+        }
+    }
+
+    /**
+     * Gets the executor for scanning jars, shared by all sessions in the
+     * servlet context so that the number of scanning threads is bounded.
+     */
+    private static ExecutorService getScanExecutor(ServletContext context) {
+        synchronized (context) {
+            ExecutorService executor = (ExecutorService) context
+                    .getAttribute(SCAN_EXECUTOR_ATTRIBUTE);
+            if (executor == null) {
+                executor = Executors.newFixedThreadPool(SCAN_THREADS,
+                        new ThreadFactory() {
+                            private final AtomicInteger threadNumber = new AtomicInteger();
+
+                            @Override
+                            public Thread newThread(Runnable runnable) {
+                                Thread thread = new Thread(runnable,
+                                        "Vrapper scanner "
+                                                + threadNumber.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+                context.setAttribute(SCAN_EXECUTOR_ATTRIBUTE, executor);
+            }
+            return executor;
+        }
+    }
+
     @Override
     public void detach() {
+        // Nobody will see the results, and the resolver is about to be closed
+        stopScan();
         super.detach();
         System.out.println("Need to figure out how to close the resolver");
     }
@@ -1,21 +1,28 @@
 package org.vaadin.vrapper;
 
+import java.io.File;
 import java.util.Collection;
 import java.util.List;
 
+import org.vaadin.vrapper.compiler.WrapperCompiler;
 import org.vaadin.vrapper.model.MethodAction;
 import org.vaadin.vrapper.model.MethodConfiguration;
 import org.vaadin.vrapper.model.WidgetConfiguration;
 import org.vaadin.vrapper.model.reflect.ApiType;
 
+import com.vaadin.data.Container.Filter;
+import com.vaadin.data.Item;
 import com.vaadin.data.Property;
 import com.vaadin.data.Property.ValueChangeEvent;
 import com.vaadin.data.Property.ValueChangeListener;
 import com.vaadin.data.util.BeanItem;
 import com.vaadin.data.util.BeanItemContainer;
+import com.vaadin.data.util.MethodProperty;
+import com.vaadin.server.FileDownloader;
 import com.vaadin.shared.ui.window.WindowMode;
 import com.vaadin.ui.Button;
 import com.vaadin.ui.Button.ClickEvent;
+import com.vaadin.ui.CheckBox;
 import com.vaadin.ui.CustomComponent;
 import com.vaadin.ui.HorizontalLayout;
 import com.vaadin.ui.Notification;
@@ -31,24 +38,64 @@ public class WidgetConfigurator extends CustomComponent {
     private static final String DEFINING_CLASS_PROPERTY = "definingClass";
     private static final String METHOD_PROPERTY = "method";
 
+    /**
+     * Hides the methods that have turned out to have no possible actions.
+     * Methods that haven't been evaluated yet are shown.
+     */
+    private static final Filter HAS_ACTIONS_FILTER = new Filter() {
+        @Override
+        public boolean passesFilter(Object itemId, Item item) {
+            MethodConfiguration configuration = (MethodConfiguration) itemId;
+            return !configuration.isEvaluated()
+                    || !configuration.getActions().isEmpty();
+        }
+
+        @Override
+        public boolean appliesToProperty(Object propertyId) {
+            return false;
+        }
+    };
+
     private final VerticalLayout layout = new VerticalLayout();
     private final MethodConfigurator methodConfigurator = new MethodConfigurator(
             this);
 
     private WidgetConfiguration configuration;
 
-    public WidgetConfigurator(WidgetConfiguration configuration) {
+    // Set when a method turns out to have no actions
+    private boolean filterOutdated = false;
+
+    /**
+     * @param libraries
+     *            the jars with the widget classes, used for compiling the
+     *            generated code
+     */
+    public WidgetConfigurator(WidgetConfiguration configuration,
+            List<File> libraries) {
         this.configuration = configuration;
         setCompositionRoot(layout);
 
         Collection<MethodConfiguration> methods = configuration
                 .getMethodConfigurations();
 
-        BeanItemContainer<MethodConfiguration> items = new BeanItemContainer<MethodConfiguration>(
+        final BeanItemContainer<MethodConfiguration> methodItems = new BeanItemContainer<MethodConfiguration>(
                 MethodConfiguration.class, methods);
+        methodItems.addContainerFilter(HAS_ACTIONS_FILTER);
+
+        MethodConfiguration.EvaluationListener evaluationListener = new MethodConfiguration.EvaluationListener() {
+            @Override
+            public void methodEvaluated(MethodConfiguration configuration) {
+                if (configuration.getActions().isEmpty()) {
+                    filterOutdated = true;
+                }
+            }
+        };
+        for (MethodConfiguration method : methods) {
+            method.addEvaluationListener(evaluationListener);
+        }
 
         final Table table = new Table("Methods in "
-                + configuration.getWidget().getClassName(), items) {
+                + configuration.getWidget().getClassName(), methodItems) {
             @Override
             protected String formatPropertyValue(Object rowId, Object colId,
                     Property<?> property) {
@@ -65,6 +112,33 @@ public class WidgetConfigurator extends CustomComponent {
                 }
                 return super.formatPropertyValue(rowId, colId, property);
             }
+
+            @Override
+            public void beforeClientResponse(boolean initial) {
+                /*
+                 * Evaluate the rows that are about to be rendered, so that
+                 * the empty ones are known and can be hidden by filtering
+                 * once before rendering. Rows evaluated anywhere else are
+                 * hidden in the next response.
+                 */
+                int rows = getPageLength() == 0 ? methodItems.size()
+                        : (int) Math.ceil(getPageLength()
+                                * (1 + getCacheRate()));
+                int index = getCurrentPageFirstItemIndex();
+                while (rows > 0 && index < methodItems.size()) {
+                    if (!methodItems.getIdByIndex(index++).getActions()
+                            .isEmpty()) {
+                        rows--;
+                    }
+                }
+
+                if (filterOutdated) {
+                    filterOutdated = false;
+                    methodItems.removeContainerFilter(HAS_ACTIONS_FILTER);
+                    methodItems.addContainerFilter(HAS_ACTIONS_FILTER);
+                }
+                super.beforeClientResponse(initial);
+            }
         };
 
         table.addGeneratedColumn(DEFINING_CLASS_PROPERTY,
@@ -87,6 +161,10 @@ public class WidgetConfigurator extends CustomComponent {
                             final Object itemId, Object columnId) {
                         MethodConfiguration configuration = (MethodConfiguration) itemId;
                         List<MethodAction> actions = configuration.getActions();
+                        if (actions.isEmpty()) {
+                            // Hidden by the filter in the next response
+                            return null;
+                        }
                         ActionSelector selector = new ActionSelector();
                         selector.setImmediate(true);
                         selector.setActions(actions);
@@ -150,6 +228,19 @@ public class WidgetConfigurator extends CustomComponent {
                     }
                 });
 
+        Button downloadButton = new Button("Download the code as a zip");
+        new FileDownloader(new SourceZipResource(configuration))
+                .extend(downloadButton);
+
+        Button jarButton = new Button("Download compiled jar");
+        if (WrapperCompiler.isAvailable()) {
+            new FileDownloader(new WrapperJarResource(configuration,
+                    libraries)).extend(jarButton);
+        } else {
+            jarButton.setEnabled(false);
+            jarButton.setDescription("Requires running Vrapper on a JDK");
+        }
+
         Button restartButton = new Button("Restart",
                 new Button.ClickListener() {
                     @Override
@@ -166,16 +257,25 @@ public class WidgetConfigurator extends CustomComponent {
             }
         };
 
+        CheckBox deferUpdatesBox = new CheckBox(
+                "Apply state changes to the widget in one batch",
+                new MethodProperty<Boolean>(configuration
+                        .getConnectorCodeConfiguration(), "deferUpdates"));
+        deferUpdatesBox.setImmediate(true);
+        deferUpdatesBox.addValueChangeListener(classChangeListener);
+
         VerticalLayout leftLayout = new VerticalLayout(table,
                 new ClassConfigForm("Connector class",
                         configuration.getConnectorCodeConfiguration(),
-                        classChangeListener), new ClassConfigForm(
+                        classChangeListener), deferUpdatesBox,
+                new ClassConfigForm(
                         "Shared state class",
                         configuration.getStateCodeConfiguration(),
                         classChangeListener), new ClassConfigForm(
                         "Component class",
                         configuration.getComponentCodeConfiguration(),
-                        classChangeListener), showCodeButton, restartButton);
+                        classChangeListener), showCodeButton, downloadButton,
+                jarButton, restartButton);
         leftLayout.setSpacing(true);
 
         HorizontalLayout layout = new HorizontalLayout(leftLayout,
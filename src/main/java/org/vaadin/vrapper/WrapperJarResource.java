@@ -0,0 +1,103 @@
+package org.vaadin.vrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.vaadin.vrapper.compiler.WrapperCompiler;
+import org.vaadin.vrapper.model.WidgetConfiguration;
+import org.vaadin.vrapper.model.codegen.AbstractCodeGenerator;
+
+import com.vaadin.server.ConnectorResource;
+import com.vaadin.server.DownloadStream;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinResponse;
+import com.vaadin.server.VaadinSession;
+
+/**
+ * A jar with the compiled classes and the sources of a widget. The code is
+ * compiled and written when the response is sent. The session is locked only
+ * while each class is rendered, since the code generators read the
+ * configuration of the widget.
+ */
+public class WrapperJarResource implements ConnectorResource {
+
+    private static class WrapperJarStream extends StreamedDownloadStream {
+        private final transient List<AbstractCodeGenerator> classes;
+        private final transient List<File> libraries;
+        private final transient Lock lock;
+
+        private transient Map<String, byte[]> compiledClasses;
+
+        private WrapperJarStream(List<AbstractCodeGenerator> classes,
+                List<File> libraries, Lock lock, String fileName) {
+            super(MIME_TYPE, fileName);
+            this.classes = classes;
+            this.libraries = libraries;
+            this.lock = lock;
+        }
+
+        @Override
+        public void writeResponse(VaadinRequest request,
+                VaadinResponse response) throws IOException {
+            try {
+                compiledClasses = new WrapperCompiler(libraries).compile(
+                        classes, lock);
+            } catch (IllegalStateException e) {
+                System.out.println(e.getMessage());
+                response.sendError(
+                        HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                        e.getMessage());
+                return;
+            }
+            super.writeResponse(request, response);
+        }
+
+        @Override
+        protected void writeContent(OutputStream out) throws IOException {
+            WrapperCompiler.writeJar(out, classes, compiledClasses, lock);
+        }
+    }
+
+    private static final String MIME_TYPE = "application/java-archive";
+
+    private final WidgetConfiguration configuration;
+
+    private final List<File> libraries;
+
+    /**
+     * @param libraries
+     *            the jars needed for compiling the code in addition to Vaadin
+     *            and GWT
+     */
+    public WrapperJarResource(WidgetConfiguration configuration,
+            List<File> libraries) {
+        this.configuration = configuration;
+        this.libraries = libraries;
+    }
+
+    @Override
+    public String getMIMEType() {
+        return MIME_TYPE;
+    }
+
+    @Override
+    public DownloadStream getStream() {
+        // Called while the session is locked
+        return new WrapperJarStream(configuration.buildCode().getClasses(),
+                libraries, VaadinSession.getCurrent().getLockInstance(),
+                getFilename());
+    }
+
+    @Override
+    public String getFilename() {
+        return configuration.getComponentCodeConfiguration().getClassName()
+                + ".jar";
+    }
+
+}
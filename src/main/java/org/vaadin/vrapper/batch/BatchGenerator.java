@@ -0,0 +1,310 @@
+package org.vaadin.vrapper.batch;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.objectweb.asm.Type;
+import org.vaadin.vrapper.compiler.WrapperCompiler;
+import org.vaadin.vrapper.metrics.Metrics;
+import org.vaadin.vrapper.model.WidgetConfiguration;
+import org.vaadin.vrapper.model.WidgetScanner;
+import org.vaadin.vrapper.model.codegen.AbstractCodeGenerator;
+import org.vaadin.vrapper.model.codegen.Code;
+import org.vaadin.vrapper.model.reflect.ClassIndex;
+import org.vaadin.vrapper.model.reflect.ClassType;
+import org.vaadin.vrapper.model.reflect.ClasspathResolver;
+import org.vaadin.vrapper.model.reflect.MappedZipResolver;
+import org.vaadin.vrapper.model.reflect.TypeSource;
+
+/**
+ * Generates wrappers for widgets without any UI, using the recommended
+ * action for each widget method. Widgets are generated concurrently since
+ * the type source is shared and safe for concurrent use.
+ * <p>
+ * When run from the command line, all widgets in a jar are generated into a
+ * source tree. If the output ends with <code>.jar</code>, the widgets are
+ * instead compiled into a jar that also contains the sources. Classes that
+ * are not in the jar are loaded from the classpath, so any libraries needed
+ * by the widgets should be on the classpath together with Vaadin and GWT.
+ *
+ * <pre>
+ * java org.vaadin.vrapper.batch.BatchGenerator widgets.jar outputDirectory [threads]
+ * java org.vaadin.vrapper.batch.BatchGenerator widgets.jar wrappers.jar [threads]
+ * </pre>
+ */
+public class BatchGenerator {
+
+    private final TypeSource typeSource;
+
+    public BatchGenerator(TypeSource typeSource) {
+        this.typeSource = typeSource;
+    }
+
+    /**
+     * Creates the code generators for one widget using the default
+     * selections.
+     */
+    public Code buildCode(Type widgetType) {
+        ClassType widgetClass = (ClassType) typeSource
+                .getTypeByInternalName(widgetType.getDescriptor());
+
+        return new WidgetConfiguration(widgetClass, typeSource).buildCode();
+    }
+
+    /**
+     * Creates the code generators for many widgets concurrently. Widgets that
+     * can't be generated are logged and get <code>null</code> in the result.
+     *
+     * @return the code of each widget, in the same order as the widget types
+     */
+    public List<Code> buildAll(List<Type> widgetTypes, ExecutorService executor)
+            throws InterruptedException {
+        List<Future<Code>> futures = new ArrayList<Future<Code>>();
+        for (final Type widgetType : widgetTypes) {
+            futures.add(executor.submit(new Callable<Code>() {
+                @Override
+                public Code call() {
+                    try {
+                        return buildCode(widgetType);
+                    } catch (RuntimeException e) {
+                        System.out.println("Could not generate "
+                                + widgetType.getClassName() + ": " + e);
+                        return null;
+                    }
+                }
+            }));
+        }
+
+        List<Code> results = new ArrayList<Code>();
+        for (Future<Code> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return the paths of the classes of the code in the source tree
+     */
+    public static List<String> getSourcePaths(Code code) {
+        List<String> paths = new ArrayList<String>();
+        for (AbstractCodeGenerator codeGenerator : code.getClasses()) {
+            paths.add(codeGenerator.getSourcePath());
+        }
+        return paths;
+    }
+
+    /**
+     * Writes the classes of each code to the source tree concurrently. Each
+     * class is written straight to its file without building the source in
+     * memory. Widgets that can't be written are logged and their files are
+     * removed, so one failing widget doesn't stop the others.
+     *
+     * @return the codes that were written, in the same order as the codes
+     */
+    public static List<Code> writeAll(final File outputDirectory,
+            List<Code> codes, ExecutorService executor)
+            throws InterruptedException {
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+        for (final Code code : codes) {
+            futures.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    try {
+                        writeSources(outputDirectory, code);
+                        return Boolean.TRUE;
+                    } catch (IOException e) {
+                        writeFailed(outputDirectory, code, e);
+                    } catch (RuntimeException e) {
+                        writeFailed(outputDirectory, code, e);
+                    }
+                    return Boolean.FALSE;
+                }
+            }));
+        }
+
+        List<Code> written = new ArrayList<Code>();
+        for (int i = 0; i < codes.size(); i++) {
+            try {
+                if (futures.get(i).get().booleanValue()) {
+                    written.add(codes.get(i));
+                }
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        return written;
+    }
+
+    private static void writeFailed(File outputDirectory, Code code,
+            Exception e) {
+        System.out.println("Could not write "
+                + code.getConfiguration().getWidget().getClassName() + ": "
+                + e);
+        for (String path : getSourcePaths(code)) {
+            FileUtils.deleteQuietly(new File(outputDirectory, path));
+        }
+    }
+
+    public static void writeSources(File outputDirectory, Code code)
+            throws IOException {
+        for (AbstractCodeGenerator codeGenerator : code.getClasses()) {
+            File file = new File(outputDirectory,
+                    codeGenerator.getSourcePath());
+            file.getParentFile().mkdirs();
+
+            Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(file), "UTF-8"));
+            try {
+                codeGenerator.writeCode(writer, false);
+                writer.close();
+            } finally {
+                IOUtils.closeQuietly(writer);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: BatchGenerator <widget jar> "
+                    + "<output directory | output .jar> [threads]");
+            System.err.println("Sources are written to the directory, "
+                    + "or compiled into a jar if the output ends with .jar");
+            System.exit(1);
+        }
+
+        File jar = new File(args[0]);
+        File outputDirectory = new File(args[1]);
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (args.length == 3) {
+            threads = Integer.parseInt(args[2]);
+        }
+
+        MappedZipResolver resolver = new MappedZipResolver(jar);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            ClassIndex classIndex = ClassIndex.forJar(jar,
+                    ClassIndex.getDefaultIndexDirectory());
+            TypeSource typeSource = new TypeSource(resolver, classIndex,
+                    TypeSource.createPlatformTypes(new ClasspathResolver()));
+
+            long start = System.nanoTime();
+            List<Type> widgetTypes = new WidgetScanner(typeSource)
+                    .findWidgetTypes(executor, threads);
+            List<Code> results = new BatchGenerator(typeSource).buildAll(
+                    widgetTypes, executor);
+
+            List<Code> selected = selectResults(widgetTypes, results);
+            int generated;
+            if (outputDirectory.getName().endsWith(".jar")) {
+                generated = writeCompiledJar(outputDirectory, jar, selected,
+                        executor);
+            } else {
+                generated = writeAll(outputDirectory, selected, executor)
+                        .size();
+            }
+            int failed = Collections.frequency(results, null)
+                    + selected.size() - generated;
+
+            long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+            System.out.println(String.format(
+                    "Generated %d of %d widgets in %d ms (%.1f widgets/s), "
+                            + "%d failed", Integer.valueOf(generated),
+                    Integer.valueOf(widgetTypes.size()), Long.valueOf(millis),
+                    Double.valueOf(generated * 1000.0 / millis),
+                    Integer.valueOf(failed)));
+
+            if (Metrics.ENABLED) {
+                Metrics.writeText(System.out);
+            }
+        } finally {
+            executor.shutdownNow();
+            resolver.close();
+        }
+    }
+
+    private static int writeCompiledJar(File outputJar, File widgetJar,
+            List<Code> codes, ExecutorService executor) throws IOException,
+            InterruptedException {
+        List<Map<String, byte[]>> classes = new WrapperCompiler(
+                Collections.singletonList(widgetJar)).compileAll(codes,
+                executor);
+
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(
+                outputJar));
+        try {
+            WrapperCompiler.writeJar(out, codes, classes);
+            out.close();
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+
+        int compiled = 0;
+        for (Map<String, byte[]> widgetClasses : classes) {
+            if (widgetClasses != null) {
+                compiled++;
+            }
+        }
+        return compiled;
+    }
+
+    /*
+     * Different widgets may get the same class names, e.g. VButton and
+     * Button. The first widget gets to keep the name and the others are
+     * skipped so that no file is overwritten with an unrelated class.
+     */
+    private static List<Code> selectResults(List<Type> widgetTypes,
+            List<Code> results) {
+        Map<String, Type> usedPaths = new HashMap<String, Type>();
+        List<Code> selected = new ArrayList<Code>();
+        for (int i = 0; i < widgetTypes.size(); i++) {
+            Type widgetType = widgetTypes.get(i);
+            Code code = results.get(i);
+            if (code == null) {
+                continue;
+            }
+
+            List<String> paths = getSourcePaths(code);
+            String conflict = null;
+            for (String path : paths) {
+                if (usedPaths.containsKey(path)) {
+                    conflict = path;
+                    break;
+                }
+            }
+            if (conflict != null) {
+                System.out.println("Skipping " + widgetType.getClassName()
+                        + ": " + conflict + " was already generated for "
+                        + usedPaths.get(conflict).getClassName());
+                continue;
+            }
+
+            for (String path : paths) {
+                usedPaths.put(path, widgetType);
+            }
+            selected.add(code);
+        }
+        return selected;
+    }
+}
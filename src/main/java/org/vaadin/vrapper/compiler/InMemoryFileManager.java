@@ -0,0 +1,239 @@
+package org.vaadin.vrapper.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+import org.vaadin.vrapper.model.codegen.AbstractCodeGenerator;
+
+/**
+ * File manager for one compilation. Sources are generated on demand, class
+ * files are kept in memory and classes from the libraries are read directly
+ * from the library jars. Everything else is delegated to a standard file
+ * manager that only knows about the platform classpath, so that it can be
+ * reused for other compilations.
+ */
+class InMemoryFileManager extends
+        ForwardingJavaFileManager<StandardJavaFileManager> {
+
+    static class SourceFile extends SimpleJavaFileObject {
+        private final AbstractCodeGenerator codeGenerator;
+        private final Lock lock;
+
+        SourceFile(AbstractCodeGenerator codeGenerator, Lock lock) {
+            super(URI.create("string:///" + codeGenerator.getSourcePath()),
+                    Kind.SOURCE);
+            this.codeGenerator = codeGenerator;
+            this.lock = lock;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            if (lock == null) {
+                return codeGenerator.generateCode(false);
+            }
+            lock.lock();
+            try {
+                return codeGenerator.generateCode(false);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static class ClassFile extends SimpleJavaFileObject {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        private ClassFile(String className) {
+            super(URI.create("mem:///" + className.replace('.', '/')
+                    + Kind.CLASS.extension), Kind.CLASS);
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            bytes.reset();
+            return bytes;
+        }
+    }
+
+    private static class LibraryClassFile extends SimpleJavaFileObject {
+        private final ZipFile zipFile;
+        private final ZipEntry entry;
+        private final String binaryName;
+
+        private LibraryClassFile(ZipFile zipFile, ZipEntry entry) {
+            super(URI.create("library:///" + entry.getName()), Kind.CLASS);
+            this.zipFile = zipFile;
+            this.entry = entry;
+
+            String name = entry.getName();
+            binaryName = name.substring(0,
+                    name.length() - Kind.CLASS.extension.length()).replace(
+                    '/', '.');
+        }
+
+        @Override
+        public InputStream openInputStream() throws IOException {
+            return zipFile.getInputStream(entry);
+        }
+    }
+
+    private final List<ZipFile> libraries = new ArrayList<ZipFile>();
+
+    private final Map<String, List<LibraryClassFile>> libraryPackages = new HashMap<String, List<LibraryClassFile>>();
+
+    private final Map<String, ClassFile> classFiles = new LinkedHashMap<String, ClassFile>();
+
+    InMemoryFileManager(StandardJavaFileManager fileManager,
+            List<File> libraryFiles) throws IOException {
+        super(fileManager);
+
+        try {
+            for (File libraryFile : libraryFiles) {
+                ZipFile zipFile = new ZipFile(libraryFile);
+                libraries.add(zipFile);
+                indexLibrary(zipFile);
+            }
+        } catch (IOException e) {
+            closeLibraries();
+            throw e;
+        }
+    }
+
+    private void indexLibrary(ZipFile zipFile) {
+        Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            String name = entry.getName();
+            if (entry.isDirectory() || !name.endsWith(Kind.CLASS.extension)) {
+                continue;
+            }
+
+            int lastSlash = name.lastIndexOf('/');
+            String packageName = lastSlash == -1 ? "" : name.substring(0,
+                    lastSlash).replace('/', '.');
+            List<LibraryClassFile> packageFiles = libraryPackages
+                    .get(packageName);
+            if (packageFiles == null) {
+                packageFiles = new ArrayList<LibraryClassFile>();
+                libraryPackages.put(packageName, packageFiles);
+            }
+            packageFiles.add(new LibraryClassFile(zipFile, entry));
+        }
+    }
+
+    /**
+     * Lists the library classes before the platform classes. javac uses the
+     * first class it finds with a given name, so a library class shadows a
+     * platform class with the same name. This is the same order that
+     * {@link org.vaadin.vrapper.model.reflect.TypeSource} uses when the code
+     * is generated, so the code is compiled against the classes it was
+     * generated for.
+     */
+    @Override
+    public Iterable<JavaFileObject> list(Location location, String packageName,
+            Set<Kind> kinds, boolean recurse) throws IOException {
+        Iterable<JavaFileObject> files = super.list(location, packageName,
+                kinds, recurse);
+        if (location != StandardLocation.CLASS_PATH
+                || !kinds.contains(Kind.CLASS)) {
+            return files;
+        }
+
+        List<JavaFileObject> allFiles = new ArrayList<JavaFileObject>();
+        for (Map.Entry<String, List<LibraryClassFile>> entry : libraryPackages
+                .entrySet()) {
+            String name = entry.getKey();
+            if (name.equals(packageName) || recurse
+                    && name.startsWith(packageName + ".")) {
+                allFiles.addAll(entry.getValue());
+            }
+        }
+        for (JavaFileObject file : files) {
+            allFiles.add(file);
+        }
+        return allFiles;
+    }
+
+    @Override
+    public String inferBinaryName(Location location, JavaFileObject file) {
+        if (file instanceof LibraryClassFile) {
+            return ((LibraryClassFile) file).binaryName;
+        }
+        return super.inferBinaryName(location, file);
+    }
+
+    @Override
+    public boolean isSameFile(FileObject a, FileObject b) {
+        if (a instanceof SimpleJavaFileObject
+                || b instanceof SimpleJavaFileObject) {
+            return a.toUri().equals(b.toUri());
+        }
+        return super.isSameFile(a, b);
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(Location location,
+            String className, Kind kind, FileObject sibling)
+            throws IOException {
+        if (location == StandardLocation.CLASS_OUTPUT && kind == Kind.CLASS) {
+            ClassFile classFile = new ClassFile(className);
+            classFiles.put(className, classFile);
+            return classFile;
+        }
+        return super.getJavaFileForOutput(location, className, kind, sibling);
+    }
+
+    /**
+     * @return the bytes of the compiled classes by binary class name
+     */
+    Map<String, byte[]> getClassFiles() {
+        Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+        for (Map.Entry<String, ClassFile> entry : classFiles.entrySet()) {
+            classes.put(entry.getKey(), entry.getValue().bytes.toByteArray());
+        }
+        return classes;
+    }
+
+    /**
+     * Closes the library jars but not the standard file manager, which is
+     * still used for other compilations.
+     */
+    void closeLibraries() {
+        for (ZipFile zipFile : libraries) {
+            try {
+                zipFile.close();
+            } catch (IOException e) {
+                System.out.println("Could not close " + zipFile.getName()
+                        + ": " + e);
+            }
+        }
+        libraries.clear();
+    }
+
+    @Override
+    public void close() {
+        closeLibraries();
+    }
+}
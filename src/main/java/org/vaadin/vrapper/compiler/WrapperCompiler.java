@@ -0,0 +1,377 @@
+package org.vaadin.vrapper.compiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import org.vaadin.vrapper.model.codegen.AbstractCodeGenerator;
+import org.vaadin.vrapper.model.codegen.Code;
+
+/**
+ * Compiles generated wrappers in memory using the system Java compiler.
+ * Generated classes are compiled against the Vaadin and GWT jars used by
+ * Vrapper itself together with the given library jars, e.g. the jar the
+ * widget was loaded from.
+ * <p>
+ * Opening and indexing the platform jars is the slow part of starting the
+ * compiler. The standard file managers are therefore pooled and shared by
+ * all compilations in the JVM so that the platform jars stay indexed between
+ * requests. Each compilation borrows its own file manager, so widgets can be
+ * compiled concurrently. At most one idle file manager per processor is
+ * kept, the others are closed when their compilation is done.
+ */
+public class WrapperCompiler {
+
+    // Classes from each jar the generated code may refer to
+    private static final List<String> PLATFORM_MARKER_CLASSES = Arrays.asList(
+            "com.google.gwt.user.client.ui.Widget",
+            "com.vaadin.client.ui.AbstractComponentConnector",
+            "com.vaadin.shared.AbstractComponentState",
+            "com.vaadin.ui.AbstractComponent", "org.json.JSONException");
+
+    private static final List<String> OPTIONS = Arrays.asList("-proc:none",
+            "-g");
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final BlockingQueue<StandardJavaFileManager> idleFileManagers = new ArrayBlockingQueue<StandardJavaFileManager>(
+            Runtime.getRuntime().availableProcessors());
+
+    private static volatile List<File> platformClasspath;
+
+    private final JavaCompiler compiler;
+
+    private final List<File> libraries;
+
+    /**
+     * @param libraries
+     *            jars with the widget classes to compile against in addition
+     *            to the platform classpath
+     */
+    public WrapperCompiler(List<File> libraries) {
+        compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException(
+                    "No Java compiler available, Vrapper must be run on a JDK to compile wrappers");
+        }
+        this.libraries = new ArrayList<File>(libraries);
+    }
+
+    /**
+     * @return <code>true</code> if the JVM has a system Java compiler
+     */
+    public static boolean isAvailable() {
+        return ToolProvider.getSystemJavaCompiler() != null;
+    }
+
+    /**
+     * Compiles all classes of one widget.
+     *
+     * @return the bytes of the compiled classes by binary class name
+     * @throws IllegalStateException
+     *             if the generated code doesn't compile
+     */
+    public Map<String, byte[]> compile(Code code) throws IOException {
+        return compile(code.getClasses(), null);
+    }
+
+    /**
+     * Compiles the given classes of one widget. Each source is rendered only
+     * when the compiler reads it.
+     *
+     * @param lock
+     *            the lock to hold while rendering each source, e.g. when the
+     *            configuration of the widget can be changed by the user, or
+     *            <code>null</code>
+     * @return the bytes of the compiled classes by binary class name
+     * @throws IllegalStateException
+     *             if the generated code doesn't compile
+     */
+    public Map<String, byte[]> compile(List<AbstractCodeGenerator> classes,
+            Lock lock) throws IOException {
+        if (classes.isEmpty()) {
+            // javac fails if there are no sources
+            return Collections.emptyMap();
+        }
+
+        StandardJavaFileManager standardFileManager = borrowFileManager();
+        InMemoryFileManager fileManager = null;
+        try {
+            fileManager = new InMemoryFileManager(standardFileManager,
+                    libraries);
+
+            List<JavaFileObject> sources = new ArrayList<JavaFileObject>();
+            for (AbstractCodeGenerator codeGenerator : classes) {
+                sources.add(new InMemoryFileManager.SourceFile(codeGenerator,
+                        lock));
+            }
+
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+            Boolean success = compiler.getTask(null, fileManager, diagnostics,
+                    OPTIONS, null, sources).call();
+            if (!success.booleanValue()) {
+                throw new IllegalStateException(describeErrors(diagnostics));
+            }
+
+            return fileManager.getClassFiles();
+        } finally {
+            if (fileManager != null) {
+                fileManager.closeLibraries();
+            }
+            if (!idleFileManagers.offer(standardFileManager)) {
+                closeQuietly(standardFileManager);
+            }
+        }
+    }
+
+    /**
+     * Compiles the classes of many widgets concurrently, each widget in its
+     * own compilation. Widgets that don't compile are logged and get
+     * <code>null</code> in the result.
+     *
+     * @return the compiled classes of each widget, in the same order as the
+     *         codes
+     */
+    public List<Map<String, byte[]>> compileAll(List<Code> codes,
+            ExecutorService executor) throws IOException, InterruptedException {
+        List<Future<Map<String, byte[]>>> futures = new ArrayList<Future<Map<String, byte[]>>>();
+        for (final Code code : codes) {
+            futures.add(executor.submit(new Callable<Map<String, byte[]>>() {
+                @Override
+                public Map<String, byte[]> call() throws IOException {
+                    try {
+                        return compile(code);
+                    } catch (IllegalStateException e) {
+                        System.out.println(e.getMessage());
+                        return null;
+                    }
+                }
+            }));
+        }
+
+        List<Map<String, byte[]>> results = new ArrayList<Map<String, byte[]>>();
+        for (Future<Map<String, byte[]>> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Closes the idle file managers, which keep the platform jars open. Should
+     * be called when the compiler won't be used any more, e.g. when the web
+     * application is stopped.
+     */
+    public static void closeFileManagers() {
+        StandardJavaFileManager fileManager;
+        while ((fileManager = idleFileManagers.poll()) != null) {
+            closeQuietly(fileManager);
+        }
+    }
+
+    private static void closeQuietly(StandardJavaFileManager fileManager) {
+        try {
+            fileManager.close();
+        } catch (IOException e) {
+            System.err.println("Couldn't close file manager");
+            e.printStackTrace();
+        }
+    }
+
+    private StandardJavaFileManager borrowFileManager() throws IOException {
+        StandardJavaFileManager fileManager = idleFileManagers.poll();
+        if (fileManager == null) {
+            fileManager = compiler.getStandardFileManager(null, null, UTF8);
+            fileManager.setLocation(StandardLocation.CLASS_PATH,
+                    getPlatformClasspath());
+            /*
+             * The GWT jars also contain the sources, which javac would
+             * otherwise compile instead of using the classes if they are
+             * newer. Library classes couldn't shadow them either.
+             */
+            fileManager.setLocation(StandardLocation.SOURCE_PATH,
+                    Collections.<File> emptyList());
+        }
+        return fileManager;
+    }
+
+    private static String describeErrors(
+            DiagnosticCollector<JavaFileObject> diagnostics) {
+        StringBuilder b = new StringBuilder("Generated code doesn't compile");
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics
+                .getDiagnostics()) {
+            if (diagnostic.getKind() != Diagnostic.Kind.ERROR) {
+                continue;
+            }
+            b.append('\n');
+            if (diagnostic.getSource() != null) {
+                b.append(diagnostic.getSource().getName()).append(':')
+                        .append(diagnostic.getLineNumber()).append(": ");
+            }
+            b.append(diagnostic.getMessage(null));
+        }
+        return b.toString();
+    }
+
+    /**
+     * Finds the jars or directories of the Vaadin and GWT classes that are
+     * used by the generated code.
+     */
+    public static List<File> getPlatformClasspath() {
+        if (platformClasspath == null) {
+            Set<File> files = new LinkedHashSet<File>();
+            for (String className : PLATFORM_MARKER_CLASSES) {
+                files.add(findClassLocation(className));
+            }
+            platformClasspath = Collections
+                    .unmodifiableList(new ArrayList<File>(files));
+        }
+        return platformClasspath;
+    }
+
+    private static File findClassLocation(String className) {
+        try {
+            // Client classes can't be initialized outside the browser
+            CodeSource codeSource = Class
+                    .forName(className, false,
+                            WrapperCompiler.class.getClassLoader())
+                    .getProtectionDomain().getCodeSource();
+            URL location = codeSource == null ? null : codeSource
+                    .getLocation();
+            if (location == null) {
+                throw new IllegalStateException("Can't find the location of "
+                        + className);
+            }
+            return new File(location.toURI());
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        } catch (URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes a jar with the compiled classes and the sources of the given
+     * widgets. The sources are included since GWT needs them for the client
+     * side classes. The sources are written directly to the jar without
+     * keeping them in memory.
+     *
+     * @param codes
+     *            the code of each widget
+     * @param classes
+     *            the compiled classes of each widget, as returned by
+     *            {@link #compileAll(List, ExecutorService)}. Widgets without
+     *            classes are skipped.
+     */
+    public static void writeJar(OutputStream out, List<Code> codes,
+            List<Map<String, byte[]>> classes) throws IOException {
+        JarOutputStream jar = openJar(out);
+        Writer writer = new OutputStreamWriter(jar, UTF8);
+        for (int i = 0; i < codes.size(); i++) {
+            if (classes.get(i) == null) {
+                continue;
+            }
+
+            writeClasses(jar, classes.get(i));
+            writeSources(jar, writer, codes.get(i).getClasses(), null);
+        }
+        jar.finish();
+    }
+
+    /**
+     * Writes a jar with the compiled classes and the sources of one widget.
+     * The sources are written one class at a time.
+     *
+     * @param classes
+     *            the classes of the widget
+     * @param compiledClasses
+     *            the compiled classes, as returned by
+     *            {@link #compile(List, Lock)}
+     * @param lock
+     *            the lock to hold while rendering each source, or
+     *            <code>null</code>
+     */
+    public static void writeJar(OutputStream out,
+            List<AbstractCodeGenerator> classes,
+            Map<String, byte[]> compiledClasses, Lock lock) throws IOException {
+        JarOutputStream jar = openJar(out);
+        writeClasses(jar, compiledClasses);
+        writeSources(jar, new OutputStreamWriter(jar, UTF8), classes, lock);
+        jar.finish();
+    }
+
+    private static JarOutputStream openJar(OutputStream out)
+            throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION,
+                "1.0");
+        return new JarOutputStream(out, manifest);
+    }
+
+    private static void writeSources(JarOutputStream jar, Writer writer,
+            List<AbstractCodeGenerator> classes, Lock lock) throws IOException {
+        for (AbstractCodeGenerator codeGenerator : classes) {
+            jar.putNextEntry(new JarEntry(codeGenerator.getSourcePath()));
+            if (lock != null) {
+                lock.lock();
+            }
+            try {
+                codeGenerator.writeCode(writer, false);
+            } finally {
+                if (lock != null) {
+                    lock.unlock();
+                }
+            }
+            writer.flush();
+            jar.closeEntry();
+        }
+    }
+
+    private static void writeClasses(JarOutputStream jar,
+            Map<String, byte[]> classes) throws IOException {
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            jar.putNextEntry(new JarEntry(entry.getKey().replace('.', '/')
+                    + ".class"));
+            jar.write(entry.getValue());
+            jar.closeEntry();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package org.vaadin.vrapper.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A counter that does nothing unless metrics are enabled.
+ */
+public class Counter {
+    private final AtomicLong value = new AtomicLong();
+
+    Counter() {
+        // Created through Metrics
+    }
+
+    public void increment() {
+        if (Metrics.ENABLED) {
+            value.incrementAndGet();
+        }
+    }
+
+    public void add(long amount) {
+        if (Metrics.ENABLED) {
+            value.addAndGet(amount);
+        }
+    }
+
+    public long getValue() {
+        return value.get();
+    }
+
+    void reset() {
+        value.set(0);
+    }
+}
@@ -0,0 +1,184 @@
+package org.vaadin.vrapper.metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and timers for the expensive parts of Vrapper. Metrics are only
+ * collected when the JVM is started with <code>-Dvrapper.metrics=true</code>.
+ * Otherwise updating a metric is a check of a constant, which the JIT
+ * compiler removes.
+ * <p>
+ * Hot code should look up its counters and timers once and keep them in
+ * static fields.
+ */
+public final class Metrics {
+
+    public static final boolean ENABLED = Boolean.getBoolean("vrapper.metrics");
+
+    private static final String OBJECT_NAME = "org.vaadin.vrapper:type=Metrics";
+
+    private static final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+    private static final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+    private static final ConcurrentMap<String, Counter[]> ratios = new ConcurrentHashMap<String, Counter[]>();
+
+    private static final MetricsMXBean mxBean = new MetricsMXBean() {
+        @Override
+        public boolean isEnabled() {
+            return ENABLED;
+        }
+
+        @Override
+        public Map<String, Long> getValues() {
+            return Metrics.getValues();
+        }
+
+        @Override
+        public Map<String, Double> getRatios() {
+            return Metrics.getRatios();
+        }
+
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+    };
+
+    private Metrics() {
+        // Only static methods
+    }
+
+    public static Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            counter = new Counter();
+            Counter existing = counters.putIfAbsent(name, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+        return counter;
+    }
+
+    public static Timer timer(String name) {
+        Timer timer = timers.get(name);
+        if (timer == null) {
+            timer = new Timer();
+            Timer existing = timers.putIfAbsent(name, timer);
+            if (existing != null) {
+                timer = existing;
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * Reports the share of hits of all hits and misses with the given name.
+     */
+    public static void ratio(String name, Counter hits, Counter misses) {
+        ratios.put(name, new Counter[] { hits, misses });
+    }
+
+    /**
+     * @return the current time for {@link Timer#stop(long)}, or 0 if metrics
+     *         are not enabled
+     */
+    public static long startTime() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    public static SortedMap<String, Long> getValues() {
+        SortedMap<String, Long> values = new TreeMap<String, Long>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            values.put(entry.getKey(),
+                    Long.valueOf(entry.getValue().getValue()));
+        }
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            String name = entry.getKey();
+            Timer timer = entry.getValue();
+            values.put(name + ".count", Long.valueOf(timer.getCount()));
+            values.put(name + ".totalNanos",
+                    Long.valueOf(timer.getTotalNanos()));
+            values.put(name + ".maxNanos", Long.valueOf(timer.getMaxNanos()));
+        }
+        return values;
+    }
+
+    public static SortedMap<String, Double> getRatios() {
+        SortedMap<String, Double> values = new TreeMap<String, Double>();
+        for (Map.Entry<String, Counter[]> entry : ratios.entrySet()) {
+            long hits = entry.getValue()[0].getValue();
+            long total = hits + entry.getValue()[1].getValue();
+            values.put(entry.getKey(),
+                    Double.valueOf(total == 0 ? 0 : (double) hits / total));
+        }
+        return values;
+    }
+
+    public static void reset() {
+        for (Counter counter : counters.values()) {
+            counter.reset();
+        }
+        for (Timer timer : timers.values()) {
+            timer.reset();
+        }
+    }
+
+    /**
+     * Writes all metrics as <code>name value</code> lines.
+     */
+    public static void writeText(Appendable out) throws IOException {
+        if (!ENABLED) {
+            out.append("# Metrics are disabled, "
+                    + "start the JVM with -Dvrapper.metrics=true\n");
+        }
+        for (Map.Entry<String, Long> entry : getValues().entrySet()) {
+            out.append(entry.getKey()).append(' ')
+                    .append(entry.getValue().toString()).append('\n');
+        }
+        for (Map.Entry<String, Double> entry : getRatios().entrySet()) {
+            out.append(entry.getKey()).append(' ')
+                    .append(String.format(Locale.ROOT, "%.4f",
+                            entry.getValue()))
+                    .append('\n');
+        }
+    }
+
+    /**
+     * Makes the metrics available through JMX as
+     * <code>org.vaadin.vrapper:type=Metrics</code>.
+     */
+    public static void registerMBean() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(mxBean, name);
+            }
+        } catch (JMException e) {
+            System.out.println("Could not register metrics MBean: " + e);
+        }
+    }
+
+    public static void unregisterMBean() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            System.out.println("Could not unregister metrics MBean: " + e);
+        }
+    }
+}
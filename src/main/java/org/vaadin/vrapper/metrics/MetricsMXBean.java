@@ -0,0 +1,21 @@
+package org.vaadin.vrapper.metrics;
+
+import java.util.Map;
+
+/**
+ * The metrics as seen through JMX.
+ */
+public interface MetricsMXBean {
+
+    public boolean isEnabled();
+
+    /**
+     * @return the counter values and the count, total time and max time of
+     *         the timers
+     */
+    public Map<String, Long> getValues();
+
+    public Map<String, Double> getRatios();
+
+    public void reset();
+}
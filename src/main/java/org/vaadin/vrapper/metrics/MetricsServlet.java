@@ -0,0 +1,61 @@
+package org.vaadin.vrapper.metrics;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Shows the metrics as plain text, and registers them in JMX while the
+ * servlet is running.
+ * <p>
+ * The metrics tell how the application is used, so the page is only shown
+ * when metrics are enabled and only to requests from the same machine. It
+ * is not found otherwise. Use JMX for remote monitoring.
+ */
+@SuppressWarnings("serial")
+public class MetricsServlet extends HttpServlet {
+
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        Metrics.registerMBean();
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        if (!Metrics.ENABLED || !isLocal(request)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        response.setContentType("text/plain; charset=UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+
+        PrintWriter writer = response.getWriter();
+        Metrics.writeText(writer);
+        writer.flush();
+    }
+
+    private static boolean isLocal(HttpServletRequest request) {
+        try {
+            // An address literal is not looked up
+            return InetAddress.getByName(request.getRemoteAddr())
+                    .isLoopbackAddress();
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        Metrics.unregisterMBean();
+        super.destroy();
+    }
+}
@@ -0,0 +1,60 @@
+package org.vaadin.vrapper.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts how many times something has been done and how long it took. Does
+ * nothing unless metrics are enabled.
+ *
+ * <pre>
+ * long startTime = Metrics.startTime();
+ * ...
+ * timer.stop(startTime);
+ * </pre>
+ */
+public class Timer {
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    Timer() {
+        // Created through Metrics
+    }
+
+    /**
+     * @param startTime
+     *            the time from {@link Metrics#startTime()}
+     */
+    public void stop(long startTime) {
+        if (!Metrics.ENABLED) {
+            return;
+        }
+
+        long nanos = System.nanoTime() - startTime;
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    void reset() {
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+}
@@ -0,0 +1,121 @@
+package org.vaadin.vrapper.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.vaadin.vrapper.model.codegen.AbstractCodeGenerator;
+import org.vaadin.vrapper.model.codegen.Code;
+
+/**
+ * Caches the code generated for single method actions of a widget. The code
+ * of an action only depends on the configuration of the action and on the
+ * class configurations of the widget, so it is only generated again when the
+ * revision of any of those has changed. Only the code of the most recently
+ * shown actions is kept.
+ */
+public class ActionCodeCache {
+
+    private static class Fragment {
+        private final List<Integer> inputs;
+        private final String code;
+
+        private Fragment(List<Integer> inputs, String code) {
+            this.inputs = inputs;
+            this.code = code;
+        }
+    }
+
+    private static final Comparator<AbstractCodeGenerator> classNameComparator = new Comparator<AbstractCodeGenerator>() {
+        @Override
+        public int compare(AbstractCodeGenerator o1, AbstractCodeGenerator o2) {
+            return o2.getType().getClassName()
+                    .compareTo(o1.getType().getClassName());
+        }
+    };
+
+    /*
+     * Enough for going back and forth between the methods being configured,
+     * without keeping the code of every action of a large widget.
+     */
+    private static final int MAX_FRAGMENTS = 32;
+
+    private final WidgetConfiguration configuration;
+
+    // The null key holds the code shown when no action is selected
+    @SuppressWarnings("serial")
+    private final Map<MethodAction, Fragment> fragments = new LinkedHashMap<MethodAction, Fragment>(
+            16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(
+                Map.Entry<MethodAction, Fragment> eldest) {
+            return size() > MAX_FRAGMENTS;
+        }
+    };
+
+    public ActionCodeCache(WidgetConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * Gets the code for an action, generating it only if it has not been
+     * generated for the current configuration.
+     *
+     * @param action
+     *            the action to get code for, or <code>null</code> to only get
+     *            the basic classes
+     * @param preview
+     *            <code>true</code> to only include the code that is relevant
+     *            for the action
+     */
+    public String getCode(MethodAction action, boolean preview) {
+        List<Integer> inputs = Arrays.asList(
+                Integer.valueOf(action == null ? 0 : action.getRevision()),
+                Integer.valueOf(preview ? 1 : 0),
+                Integer.valueOf(configuration.getConnectorCodeConfiguration()
+                        .getRevision()),
+                Integer.valueOf(configuration.getStateCodeConfiguration()
+                        .getRevision()),
+                Integer.valueOf(configuration.getComponentCodeConfiguration()
+                        .getRevision()));
+
+        Fragment fragment = fragments.get(action);
+        if (fragment == null || !fragment.inputs.equals(inputs)) {
+            fragment = new Fragment(inputs, generateCode(action, preview));
+            fragments.put(action, fragment);
+        }
+        return fragment.code;
+    }
+
+    private String generateCode(MethodAction action, boolean preview) {
+        Code code = new Code(configuration);
+        if (action != null) {
+            action.writeCode(code);
+        } else {
+            code.getConnectorCode();
+        }
+
+        StringBuilder b = new StringBuilder();
+
+        List<AbstractCodeGenerator> classes = code.getClasses();
+        Collections.sort(classes, classNameComparator);
+
+        boolean first = true;
+        for (AbstractCodeGenerator generator : classes) {
+            String generated = generator.generateCode(preview);
+            if (generated != null) {
+                if (!first) {
+                    b.append("\n\n");
+                }
+
+                b.append(generated);
+                first = false;
+            }
+        }
+
+        return b.toString();
+    }
+}
@@ -32,6 +32,7 @@ public class ClientRpcMethodAction extends MethodAction {
 
 	public void setMethodName(String methodName) {
 		this.methodName = methodName;
+		markAsChanged();
 	}
 
 	public String getRpcInterfaceName() {
@@ -40,6 +41,7 @@ public class ClientRpcMethodAction extends MethodAction {
 
 	public void setRpcInterfaceName(String rpcInterfaceName) {
 		this.rpcInterfaceName = rpcInterfaceName;
+		markAsChanged();
 	}
 
 	@Override
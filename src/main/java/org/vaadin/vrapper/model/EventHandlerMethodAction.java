@@ -1,22 +1,65 @@
 package org.vaadin.vrapper.model;
 
+import java.lang.annotation.Annotation;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.vaadin.vrapper.model.codegen.Code;
+import org.vaadin.vrapper.model.codegen.ConnectorCodeGenerator;
+import org.vaadin.vrapper.model.codegen.MethodCode;
 import org.vaadin.vrapper.model.codegen.OneLiner;
 import org.vaadin.vrapper.model.codegen.SnippetGenerator;
 import org.vaadin.vrapper.model.codegen.SourceWriter;
 import org.vaadin.vrapper.model.reflect.ApiMethod;
 import org.vaadin.vrapper.model.reflect.ApiType;
+import org.vaadin.vrapper.model.reflect.ArrayType;
 import org.vaadin.vrapper.model.reflect.ClassType;
+import org.vaadin.vrapper.model.reflect.TypeSource;
+import org.vaadin.vrapper.model.reflect.TypeSource.Primitive;
 
+import com.vaadin.shared.annotations.Delayed;
 import com.vaadin.shared.communication.ServerRpc;
 
 public class EventHandlerMethodAction extends MethodAction {
 
+    /**
+     * How the connector sends the events to the server.
+     */
+    public enum DeliveryMode {
+        /**
+         * Every event is sent right away.
+         */
+        IMMEDIATE,
+        /**
+         * At most a given number of events are sent during each interval. The
+         * last event that was not sent is sent when the interval ends.
+         */
+        THROTTLED,
+        /**
+         * An event is only sent when there have been no new events during the
+         * interval.
+         */
+        DEBOUNCED,
+        /**
+         * Only the last event is sent, together with the next request that
+         * is sent for some other reason.
+         */
+        LAST_VALUE_ONLY,
+        /**
+         * Every event is sent, but the events that happen before the browser
+         * gets back to its event loop are sent as arrays in one call.
+         */
+        BATCHED;
+    }
+
     private String rpcInterfaceName;
 
+    private DeliveryMode deliveryMode = DeliveryMode.IMMEDIATE;
+
+    private int interval = 100;
+
+    private int maxEvents = 1;
+
     private List<CustomMethodParameter> customParameters = new ArrayList<CustomMethodParameter>();
 
     private ClassType eventHandlerType;
@@ -25,12 +68,31 @@ public class EventHandlerMethodAction extends MethodAction {
 
     private ClassType eventType;
 
+    private final TypeSource typeSource;
+
     public EventHandlerMethodAction(ApiMethod method,
             WidgetConfiguration widgetConfiguration) {
         super(method, "Send event to server");
+        typeSource = widgetConfiguration.getTypeSource();
         rpcInterfaceName = widgetConfiguration.getComponentCodeConfiguration()
                 .getClassName() + "ServerRpc";
+    }
+
+    /*
+     * The return type of an addXxxHandler method is a platform type, but the
+     * array and generated types of the event must be resolved in the
+     * session.
+     */
+    @Override
+    protected TypeSource getTypeSource() {
+        return typeSource;
+    }
 
+    /*
+     * Loads the methods of the handler type, so this is only done when the
+     * action is evaluated.
+     */
+    private void findHandlerMethod() {
         List<ApiType> parameterTypes = getMethod().getParameterTypes();
         if (parameterTypes.size() == 1
                 && parameterTypes.get(0) instanceof ClassType) {
@@ -63,10 +125,55 @@ public class EventHandlerMethodAction extends MethodAction {
 
     public void setRpcInterfaceName(String rpcInterfaceName) {
         this.rpcInterfaceName = rpcInterfaceName;
+        markAsChanged();
+    }
+
+    public DeliveryMode getDeliveryMode() {
+        return deliveryMode;
+    }
+
+    public void setDeliveryMode(DeliveryMode deliveryMode) {
+        if (deliveryMode == null) {
+            throw new IllegalArgumentException("Delivery mode can't be null");
+        }
+        this.deliveryMode = deliveryMode;
+        markAsChanged();
+    }
+
+    /**
+     * @return the throttling or debouncing interval in milliseconds
+     */
+    public int getInterval() {
+        return interval;
+    }
+
+    public void setInterval(int interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+        this.interval = interval;
+        markAsChanged();
+    }
+
+    /**
+     * @return the number of events to send during each interval when
+     *         throttling
+     */
+    public int getMaxEvents() {
+        return maxEvents;
+    }
+
+    public void setMaxEvents(int maxEvents) {
+        if (maxEvents <= 0) {
+            throw new IllegalArgumentException("Max events must be positive");
+        }
+        this.maxEvents = maxEvents;
+        markAsChanged();
     }
 
     @Override
     public Evaluation evaluate() {
+        findHandlerMethod();
         ApiMethod method = getMethod();
 
         if (method.getParameterTypes().size() != 1) {
@@ -93,20 +200,66 @@ public class EventHandlerMethodAction extends MethodAction {
     public void writeCode(Code code) {
         final ApiType handlerType = getMethod().getParameterTypes().get(0);
 
-        List<ApiType> parameterTypes = new ArrayList<ApiType>();
-        List<String> parameterNames = new ArrayList<String>();
+        final boolean batched = deliveryMode == DeliveryMode.BATCHED;
+
+        final List<ApiType> parameterTypes = new ArrayList<ApiType>();
+        final List<String> parameterNames = new ArrayList<String>();
         for (CustomMethodParameter parameter : getCustomParameters()) {
-            parameterTypes.add(parameter.getType());
+            if (batched) {
+                parameterTypes.add(getTypeSource().getArrayType(
+                        parameter.getType()));
+            } else {
+                parameterTypes.add(parameter.getType());
+            }
             parameterNames.add(parameter.getParameterName());
         }
+        if (batched && parameterTypes.isEmpty()) {
+            // Only the number of events is sent
+            parameterTypes.add(getTypeSource().getPrimitiveType(Primitive.INT));
+            parameterNames.add("count");
+        }
+
+        SnippetGenerator handlerSnippet = new OneLiner("// TODO handle event");
+        if (batched) {
+            handlerSnippet = new SnippetGenerator() {
+                @Override
+                public void writeSnippet(SourceWriter w) {
+                    writeBatchLoop(w, parameterNames, getCustomParameters()
+                            .isEmpty());
+                }
+            };
+        }
+
+        Annotation[] methodAnnotations = new Annotation[0];
+        if (deliveryMode == DeliveryMode.LAST_VALUE_ONLY) {
+            methodAnnotations = new Annotation[] { new Delayed() {
+                @Override
+                public Class<? extends Annotation> annotationType() {
+                    return Delayed.class;
+                }
+
+                @Override
+                public boolean lastOnly() {
+                    return true;
+                }
+            } };
+        }
 
         ClassType rpcType = code.addServerRpcMethod(getRpcInterfaceName(),
                 getTypeSource().getType(ServerRpc.class),
                 handlerMethod.getName(), parameterTypes, parameterNames,
-                new OneLiner("// TODO handle event"));
+                handlerSnippet, methodAnnotations);
 
         final ClassType rpcTypeFinal = rpcType;
 
+        final boolean timed = deliveryMode == DeliveryMode.THROTTLED
+                || deliveryMode == DeliveryMode.DEBOUNCED;
+        if (timed) {
+            writeTimerCode(code.getConnectorCode(), rpcType);
+        } else if (batched) {
+            writeQueueCode(code.getConnectorCode(), rpcType);
+        }
+
         code.getConnectorCode().addInitSnippet(new SnippetGenerator() {
             @Override
             public void writeSnippet(SourceWriter w) {
@@ -137,37 +290,358 @@ public class EventHandlerMethodAction extends MethodAction {
                 }
                 w.indent();
 
-                w.print("getRpcProxy(%s.class).%s(", rpcTypeFinal,
-                        handlerMethod.getName());
-                List<CustomMethodParameter> parameterGenerators = getCustomParameters();
-                boolean splitLines = parameterGenerators.size() >= 2;
-                if (splitLines) {
-                    w.println();
-                    w.indent();
-                }
-                for (int i = 0; i < parameterGenerators.size(); i++) {
-                    if (i != 0) {
-                        w.print(", ");
-                        if (splitLines) {
-                            w.println();
-                        }
-                    }
-                    parameterGenerators.get(i).getGenerator().writeSnippet(w);
+                if (timed) {
+                    writeEventToFields(w);
+                } else if (batched) {
+                    writeQueueCall(w);
+                } else {
+                    writeRpcCall(w, rpcTypeFinal, null);
                 }
+
+                w.outdent();
+                w.println("}");
+
+                w.outdent();
+                w.println("});");
+            }
+        });
+    }
+
+    /**
+     * Writes the RPC call with the given variables as the arguments, or with
+     * the values of the custom parameters if the arguments are
+     * <code>null</code>.
+     */
+    private void writeRpcCall(SourceWriter w, ClassType rpcType,
+            List<String> arguments) {
+        w.print("getRpcProxy(%s.class).%s(", rpcType, handlerMethod.getName());
+        List<CustomMethodParameter> parameterGenerators = getCustomParameters();
+        int argumentCount = arguments != null ? arguments.size()
+                : parameterGenerators.size();
+        boolean splitLines = argumentCount >= 2;
+        if (splitLines) {
+            w.println();
+            w.indent();
+        }
+        for (int i = 0; i < argumentCount; i++) {
+            if (i != 0) {
+                w.print(", ");
                 if (splitLines) {
                     w.println();
-                    w.outdent();
                 }
+            }
+            if (arguments != null) {
+                w.print(arguments.get(i));
+            } else {
+                parameterGenerators.get(i).getGenerator().writeSnippet(w);
+            }
+        }
+        if (splitLines) {
+            w.println();
+            w.outdent();
+        }
+
+        w.println(");");
+    }
+
+    /*
+     * The event might not be usable later, so the values to send are read
+     * right away and kept in fields until the timer sends them.
+     */
+    private void writeEventToFields(SourceWriter w) {
+        for (CustomMethodParameter parameter : getCustomParameters()) {
+            w.print("%s = ", getEventFieldName(parameter));
+            parameter.getGenerator().writeSnippet(w);
+            w.println(";");
+        }
 
-                w.println(");");
+        if (deliveryMode == DeliveryMode.THROTTLED) {
+            w.println("%s = true;", getEventMemberName("Pending"));
+            w.println("if (%s < %d) {", getEventMemberName("Count"),
+                    Integer.valueOf(maxEvents));
+            w.indentln("%s();", getSendMethodName());
+            w.println("}");
+        } else {
+            w.println("%s.schedule(%d);", getEventMemberName("Timer"),
+                    Integer.valueOf(interval));
+        }
+    }
 
+    private void writeTimerCode(ConnectorCodeGenerator connector,
+            final ClassType rpcType) {
+        final ClassType timerType = getTypeSource().getObjectType(
+                "com.google.gwt.user.client.Timer");
+        final String timerField = getEventMemberName("Timer");
+        final String countField = getEventMemberName("Count");
+        final String pendingField = getEventMemberName("Pending");
+        final boolean throttled = deliveryMode == DeliveryMode.THROTTLED;
+
+        connector.addField(timerField, timerType);
+        if (throttled) {
+            connector.addField(countField,
+                    getTypeSource().getPrimitiveType(Primitive.INT));
+            connector.addField(pendingField,
+                    getTypeSource().getPrimitiveType(Primitive.BOOLEAN));
+        }
+        for (CustomMethodParameter parameter : getCustomParameters()) {
+            connector.addField(getEventFieldName(parameter),
+                    parameter.getType());
+        }
+
+        MethodCode sendMethod = connector.addMethod(getTypeSource()
+                .getVoid(), getSendMethodName());
+        sendMethod.setPublic(false);
+        sendMethod.addImplementationSnippet(new SnippetGenerator() {
+            @Override
+            public void writeSnippet(SourceWriter w) {
+                if (throttled) {
+                    // The interval starts from the first sent event
+                    w.println("if (%s == 0) {", countField);
+                    w.indentln("%s.schedule(%d);", timerField,
+                            Integer.valueOf(interval));
+                    w.println("}");
+                    w.println("%s++;", countField);
+                    w.println("%s = false;", pendingField);
+                }
+                List<String> fields = new ArrayList<String>();
+                for (CustomMethodParameter parameter : getCustomParameters()) {
+                    fields.add(getEventFieldName(parameter));
+                }
+                writeRpcCall(w, rpcType, fields);
+            }
+        });
+
+        connector.addInitSnippet(new SnippetGenerator() {
+            @Override
+            public void writeSnippet(SourceWriter w) {
+                w.println("%s = new %s() {", timerField, timerType);
+                w.indent();
+                if (!w.isPreview()) {
+                    w.println("@Override");
+                }
+                w.println("public void run() {");
+                w.indent();
+                if (throttled) {
+                    w.println("%s = 0;", countField);
+                    w.println("if (%s) {", pendingField);
+                    w.indentln("%s();", getSendMethodName());
+                    w.println("}");
+                } else {
+                    w.println("%s();", getSendMethodName());
+                }
                 w.outdent();
                 w.println("}");
+                w.outdent();
+                w.println("};");
+            }
+        });
+
+        connector.addUnregisterSnippet(new OneLiner("%s.cancel();",
+                timerField));
+    }
 
+    private void writeQueueCall(SourceWriter w) {
+        w.print("%s(", getQueueMethodName());
+        List<CustomMethodParameter> parameters = getCustomParameters();
+        for (int i = 0; i < parameters.size(); i++) {
+            if (i != 0) {
+                w.print(", ");
+            }
+            parameters.get(i).getGenerator().writeSnippet(w);
+        }
+        w.println(");");
+    }
+
+    /*
+     * The connector keeps the values of the queued events in one array for
+     * each parameter. The arrays grow as needed and are reused between
+     * batches, and the RPC call gets copies with the exact length. The
+     * generated methods name their parameters and variables by index, so
+     * they can't clash with the names of the custom parameters or fields.
+     */
+    private void writeQueueCode(ConnectorCodeGenerator connector,
+            final ClassType rpcType) {
+        final ClassType schedulerType = getTypeSource().getObjectType(
+                "com.google.gwt.core.client.Scheduler");
+        final String countField = getEventMemberName("Count");
+        final List<CustomMethodParameter> parameters = getCustomParameters();
+
+        connector.addField(countField,
+                getTypeSource().getPrimitiveType(Primitive.INT));
+
+        List<ApiType> queueTypes = new ArrayList<ApiType>();
+        List<String> queueNames = new ArrayList<String>();
+        for (int i = 0; i < parameters.size(); i++) {
+            CustomMethodParameter parameter = parameters.get(i);
+            connector.addField(getEventFieldName(parameter), getTypeSource()
+                    .getArrayType(parameter.getType()));
+            queueTypes.add(parameter.getType());
+            queueNames.add("value" + i);
+        }
+
+        if (!parameters.isEmpty()) {
+            connector.addInitSnippet(new SnippetGenerator() {
+                @Override
+                public void writeSnippet(SourceWriter w) {
+                    for (CustomMethodParameter parameter : parameters) {
+                        w.print("%s = ", getEventFieldName(parameter));
+                        writeNewArray(w, parameter.getType(), "8");
+                        w.println(";");
+                    }
+                }
+            });
+        }
+
+        MethodCode queueMethod = connector.addMethod(getTypeSource()
+                .getVoid(), getQueueMethodName(), queueTypes);
+        queueMethod.setParameterNames(queueNames);
+        queueMethod.setPublic(false);
+        queueMethod.addImplementationSnippet(new SnippetGenerator() {
+            @Override
+            public void writeSnippet(SourceWriter w) {
+                // Send once the browser is done with the current event
+                w.println("if (%s == 0) {", countField);
+                w.indent();
+                w.println(
+                        "%s.get().scheduleFinally(new %s.ScheduledCommand() {",
+                        schedulerType, schedulerType);
+                w.indent();
+                if (!w.isPreview()) {
+                    w.println("@Override");
+                }
+                w.println("public void execute() {");
+                w.indentln("%s();", getSendMethodName());
+                w.println("}");
                 w.outdent();
                 w.println("});");
+                w.outdent();
+                w.println("}");
+
+                if (!parameters.isEmpty()) {
+                    w.println("if (%s == %s.length) {", countField,
+                            getEventFieldName(parameters.get(0)));
+                    w.indent();
+                    for (int i = 0; i < parameters.size(); i++) {
+                        CustomMethodParameter parameter = parameters.get(i);
+                        String field = getEventFieldName(parameter);
+                        String grown = "queue" + i;
+                        w.print("%s %s = ", getTypeSource().getArrayType(
+                                parameter.getType()), grown);
+                        writeNewArray(w, parameter.getType(), "2 * "
+                                + countField);
+                        w.println(";");
+                        w.println("System.arraycopy(%s, 0, %s, 0, %s);", field,
+                                grown, countField);
+                        w.println("%s = %s;", field, grown);
+                    }
+                    w.outdent();
+                    w.println("}");
+                    for (int i = 0; i < parameters.size(); i++) {
+                        w.println("%s[%s] = value%d;",
+                                getEventFieldName(parameters.get(i)),
+                                countField, Integer.valueOf(i));
+                    }
+                }
+                w.println("%s++;", countField);
             }
         });
+
+        MethodCode sendMethod = connector.addMethod(getTypeSource()
+                .getVoid(), getSendMethodName());
+        sendMethod.setPublic(false);
+        sendMethod.addImplementationSnippet(new SnippetGenerator() {
+            @Override
+            public void writeSnippet(SourceWriter w) {
+                List<String> arguments = new ArrayList<String>();
+                if (parameters.isEmpty()) {
+                    w.println("int count = %s;", countField);
+                    arguments.add("count");
+                }
+                for (int i = 0; i < parameters.size(); i++) {
+                    CustomMethodParameter parameter = parameters.get(i);
+                    String name = "values" + i;
+                    w.print("%s %s = ", getTypeSource().getArrayType(
+                            parameter.getType()), name);
+                    writeNewArray(w, parameter.getType(), countField);
+                    w.println(";");
+                    w.println("System.arraycopy(%s, 0, %s, 0, %s);",
+                            getEventFieldName(parameter), name, countField);
+                    arguments.add(name);
+                }
+                w.println("%s = 0;", countField);
+                writeRpcCall(w, rpcType, arguments);
+            }
+        });
+    }
+
+    /**
+     * Writes an expression that creates an array of the given component type.
+     */
+    private static void writeNewArray(SourceWriter w, ApiType componentType,
+            String length) {
+        if (componentType instanceof ArrayType) {
+            ArrayType arrayType = (ArrayType) componentType;
+            w.print("new %s[%s]%s", arrayType.getElementType(), length,
+                    arrayType.addBrackets(""));
+        } else {
+            w.print("new %s[%s]", componentType, length);
+        }
+    }
+
+    /*
+     * The events of a batch are handled one at a time, in the order they
+     * happened.
+     */
+    private static void writeBatchLoop(SourceWriter w,
+            List<String> parameterNames, boolean countOnly) {
+        String index = "i";
+        while (parameterNames.contains(index)) {
+            index += "i";
+        }
+
+        if (countOnly) {
+            w.println("for (int %s = 0; %s < count; %s++) {", index, index,
+                    index);
+            w.indentln("// TODO handle event");
+        } else {
+            w.println("for (int %s = 0; %s < %s.length; %s++) {", index,
+                    index, parameterNames.get(0), index);
+            StringBuilder values = new StringBuilder();
+            for (String name : parameterNames) {
+                if (values.length() != 0) {
+                    values.append(", ");
+                }
+                values.append(name).append('[').append(index).append(']');
+            }
+            w.indentln("// TODO handle event using " + values);
+        }
+        w.println("}");
+    }
+
+    private String getQueueMethodName() {
+        return "queue" + capitalize(handlerMethod.getName());
+    }
+
+    private String getEventMemberName(String suffix) {
+        return handlerMethod.getName() + suffix;
+    }
+
+    /*
+     * The values of the parameters are kept in fields named like
+     * onClickEventDetails, so a parameter can't have the same name as the
+     * Timer, Count or Pending fields of the same handler.
+     */
+    private String getEventFieldName(CustomMethodParameter parameter) {
+        return getEventMemberName("Event"
+                + capitalize(parameter.getParameterName()));
+    }
+
+    private String getSendMethodName() {
+        return "send" + capitalize(handlerMethod.getName());
+    }
+
+    private static String capitalize(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
     }
 
     public ClassType getEventType() {
@@ -180,6 +654,7 @@ public class EventHandlerMethodAction extends MethodAction {
 
     public void setCustomParameters(List<CustomMethodParameter> customParameters) {
         this.customParameters = customParameters;
+        markAsChanged();
     }
 
     public ApiMethod getHandlerMethod() {
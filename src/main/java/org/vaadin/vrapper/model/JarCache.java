@@ -0,0 +1,216 @@
+package org.vaadin.vrapper.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.objectweb.asm.Type;
+import org.vaadin.vrapper.metrics.Counter;
+import org.vaadin.vrapper.metrics.Metrics;
+import org.vaadin.vrapper.model.reflect.ClassIndex;
+import org.vaadin.vrapper.model.reflect.MappedZipResolver;
+import org.vaadin.vrapper.model.reflect.TypeSource;
+
+/**
+ * Shares uploaded jars by the hash of their contents, so that a jar that is
+ * uploaded many times is only stored, indexed and scanned once. Jars that are
+ * not used by anyone are kept until the cached jars are larger than the
+ * limit, and then removed starting from the least recently used one. Safe to
+ * use from multiple threads.
+ */
+public class JarCache {
+
+    /**
+     * An uploaded jar together with the results of analyzing it.
+     */
+    public static class CachedJar {
+        private final String hash;
+        private final File file;
+        private final long size;
+
+        // Guarded by the cache
+        private int references = 0;
+
+        // Written only while holding the lock of this jar
+        private MappedZipResolver resolver;
+        private TypeSource typeSource;
+
+        private volatile List<Type> widgetTypes;
+
+        private CachedJar(String hash, File file) {
+            this.hash = hash;
+            this.file = file;
+            size = file.length();
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * Gets the types of the jar, indexing the jar the first time. Types
+         * loaded by one user are reused by everyone else.
+         *
+         * @param platformTypes
+         *            the shared type source for the Vaadin and GWT classes
+         */
+        public synchronized TypeSource getTypeSource(TypeSource platformTypes)
+                throws IOException {
+            if (typeSource == null) {
+                resolver = new MappedZipResolver(file);
+                ClassIndex classIndex = ClassIndex.forJar(file, hash,
+                        ClassIndex.getDefaultIndexDirectory());
+                typeSource = new TypeSource(resolver, classIndex,
+                        platformTypes);
+            }
+            return typeSource;
+        }
+
+        /**
+         * @return the widget types in the jar, or <code>null</code> if the
+         *         jar has not been completely scanned
+         */
+        public List<Type> getWidgetTypes() {
+            return widgetTypes;
+        }
+
+        public void setWidgetTypes(List<Type> widgetTypes) {
+            this.widgetTypes = Collections
+                    .unmodifiableList(new ArrayList<Type>(widgetTypes));
+        }
+
+        private synchronized void close() {
+            System.out.println("Removing cached jar " + file);
+            if (resolver != null) {
+                try {
+                    resolver.close();
+                } catch (IOException e) {
+                    System.err.println("Couldn't close resolver for " + file);
+                    e.printStackTrace();
+                }
+            }
+            file.delete();
+            ClassIndex.delete(hash, ClassIndex.getDefaultIndexDirectory());
+        }
+    }
+
+    private static final Counter hits = Metrics.counter("jarCache.hits");
+    private static final Counter misses = Metrics.counter("jarCache.misses");
+
+    static {
+        Metrics.ratio("jarCache.hitRatio", hits, misses);
+    }
+
+    private final long maxBytes;
+
+    // In access order, so the least recently used jar is first
+    private final LinkedHashMap<String, CachedJar> jars = new LinkedHashMap<String, CachedJar>(
+            16, 0.75f, true);
+
+    private long totalBytes = 0;
+
+    /**
+     * @param maxBytes
+     *            the total size of the cached jars to keep even when no one
+     *            is using them
+     */
+    public JarCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Gets the cached jar with the same contents as the uploaded file, or
+     * starts caching the uploaded file if there is none. The uploaded file is
+     * deleted if the same jar is already cached. Every acquired jar must be
+     * released when it is no longer used.
+     *
+     * @param hash
+     *            the hash of the uploaded file from
+     *            {@link ClassIndex#createDigest()}
+     */
+    public CachedJar acquire(String hash, File uploadedFile) {
+        CachedJar jar;
+        List<CachedJar> removed;
+        synchronized (this) {
+            jar = jars.get(hash);
+            if (jar == null) {
+                misses.increment();
+                jar = new CachedJar(hash, uploadedFile);
+                jars.put(hash, jar);
+                totalBytes += jar.size;
+            } else {
+                hits.increment();
+                if (!jar.file.equals(uploadedFile)) {
+                    uploadedFile.delete();
+                }
+            }
+            jar.references++;
+            removed = removeUnused();
+        }
+
+        close(removed);
+        return jar;
+    }
+
+    public void release(CachedJar jar) {
+        List<CachedJar> removed;
+        synchronized (this) {
+            if (jar.references <= 0) {
+                throw new IllegalStateException(jar.file
+                        + " has already been released");
+            }
+            jar.references--;
+            removed = removeUnused();
+        }
+
+        close(removed);
+    }
+
+    /**
+     * Removes all jars, also the ones that are still in use. Used when the
+     * cache won't be needed any more.
+     */
+    public void close() {
+        List<CachedJar> removed;
+        synchronized (this) {
+            removed = new ArrayList<CachedJar>(jars.values());
+            jars.clear();
+            totalBytes = 0;
+        }
+
+        close(removed);
+    }
+
+    /*
+     * Jars that are in use are never removed, so the cache can temporarily
+     * be larger than the limit.
+     */
+    private List<CachedJar> removeUnused() {
+        List<CachedJar> removed = new ArrayList<CachedJar>();
+        Iterator<CachedJar> iterator = jars.values().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            CachedJar jar = iterator.next();
+            if (jar.references == 0) {
+                iterator.remove();
+                totalBytes -= jar.size;
+                removed.add(jar);
+            }
+        }
+        return removed;
+    }
+
+    // Not holding the lock of the cache while waiting for a jar's lock
+    private static void close(List<CachedJar> jars) {
+        for (CachedJar jar : jars) {
+            jar.close();
+        }
+    }
+}
@@ -25,6 +25,8 @@ public abstract class MethodAction {
 	private Status status;
 	private String comment;
 
+	private int revision = 0;
+
 	public MethodAction(ApiMethod method, String name) {
 		this.method = method;
 		this.name = name;
@@ -56,6 +58,18 @@ public abstract class MethodAction {
 
 	public abstract void writeCode(Code code);
 
+	/**
+	 * @return a number that is changed every time the configuration of this
+	 *         action is changed
+	 */
+	public int getRevision() {
+		return revision;
+	}
+
+	protected void markAsChanged() {
+		revision++;
+	}
+
 	protected TypeSource getTypeSource() {
 		return getMethod().getReturnType().getTypeSource();
 	}
@@ -5,11 +5,23 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.vaadin.vrapper.model.MethodAction.Status;
 import org.vaadin.vrapper.model.reflect.ApiMethod;
 
 public class MethodConfiguration {
+    /**
+     * Notified when the actions of a method have been evaluated.
+     */
+    public interface EvaluationListener {
+        /**
+         * Called once, from the thread that evaluated the actions while it
+         * holds the lock of the configuration.
+         */
+        public void methodEvaluated(MethodConfiguration configuration);
+    }
+
     private static final Comparator<MethodAction> actionComparator = new Comparator<MethodAction>() {
         @Override
         public int compare(MethodAction o1, MethodAction o2) {
@@ -19,15 +31,31 @@ public class MethodConfiguration {
 
     private final WidgetConfiguration widgetConf;
     private final ApiMethod method;
-    private final List<MethodAction> actions = new ArrayList<MethodAction>();
-    private final List<MethodAction> impossibleActions = new ArrayList<MethodAction>();
 
+    // Written only while holding the lock, read through ensureEvaluated()
+    private List<MethodAction> actions;
+    private List<MethodAction> impossibleActions;
     private MethodAction selectedAction;
 
+    private final List<EvaluationListener> evaluationListeners = new CopyOnWriteArrayList<EvaluationListener>();
+
+    /**
+     * Creates a configuration without evaluating the actions of the method.
+     * The actions are evaluated the first time they are needed, since that
+     * may load many other types.
+     */
     public MethodConfiguration(WidgetConfiguration widgetConf, ApiMethod method) {
         this.widgetConf = widgetConf;
         this.method = method;
+    }
 
+    private synchronized void ensureEvaluated() {
+        if (actions != null) {
+            return;
+        }
+
+        List<MethodAction> actions = new ArrayList<MethodAction>();
+        impossibleActions = new ArrayList<MethodAction>();
         for (MethodAction methodAction : Arrays
                 .asList(new StateFieldMethodAction(method),
                         new ClientRpcMethodAction(method, widgetConf),
@@ -46,25 +74,46 @@ public class MethodConfiguration {
                 && actions.get(0).getStatus() == Status.RECOMMENDED) {
             selectedAction = actions.get(0);
         }
+        this.actions = actions;
+
+        for (EvaluationListener listener : evaluationListeners) {
+            listener.methodEvaluated(this);
+        }
+    }
+
+    public void addEvaluationListener(EvaluationListener listener) {
+        evaluationListeners.add(listener);
+    }
+
+    public void removeEvaluationListener(EvaluationListener listener) {
+        evaluationListeners.remove(listener);
+    }
+
+    public synchronized boolean isEvaluated() {
+        return actions != null;
     }
 
     public List<MethodAction> getActions() {
+        ensureEvaluated();
         return Collections.unmodifiableList(actions);
     }
 
     public List<MethodAction> getImpossibleActions() {
+        ensureEvaluated();
         return Collections.unmodifiableList(impossibleActions);
     }
 
-    public MethodAction getSelectedAction() {
+    public synchronized MethodAction getSelectedAction() {
+        ensureEvaluated();
         return selectedAction;
     }
 
-    public void setSelectedAction(MethodAction action) {
+    public synchronized void setSelectedAction(MethodAction action) {
         if (action != null && !action.getMethod().equals(method)) {
             throw new IllegalArgumentException("Can't assign action for "
                     + action.getMethod() + " assign to the method " + method);
         }
+        ensureEvaluated();
         this.selectedAction = action;
     }
 
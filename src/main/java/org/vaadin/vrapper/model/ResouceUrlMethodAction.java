@@ -31,6 +31,7 @@ public class ResouceUrlMethodAction extends MethodAction {
 
 	public void setResourceKey(String resourceKey) {
 		this.resourceKey = resourceKey;
+		markAsChanged();
 	}
 
 	public String getSetterName() {
@@ -39,6 +40,7 @@ public class ResouceUrlMethodAction extends MethodAction {
 
 	public void setSetterName(String setterName) {
 		this.setterName = setterName;
+		markAsChanged();
 	}
 
 	@Override
@@ -85,19 +87,14 @@ public class ResouceUrlMethodAction extends MethodAction {
 		getter.addImplementationSnippet(new OneLiner(
 				"return getResource(\"%s\");", resourceKey));
 
-		code.getConnectorCode().addStateChangeSnippet(new SnippetGenerator() {
+		// All resources are in the same state property
+		code.getConnectorCode().addStateChangeHandler(new SnippetGenerator() {
 			@Override
 			public void writeSnippet(SourceWriter w) {
-				w.println("if (event.hasPropertyChanged(\"resources\") {");
-				w.indent();
-
 				w.println("getWidget().%s(getResourceUrl(\"%s\"));",
 						method.getName(), resourceKey);
-
-				w.outdent();
-				w.println("}");
 			}
-		});
+		}, "resources");
 	}
 
 }
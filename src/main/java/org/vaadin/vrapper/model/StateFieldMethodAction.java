@@ -1,6 +1,7 @@
 package org.vaadin.vrapper.model;
 
 import java.lang.annotation.Annotation;
+import java.util.Arrays;
 import java.util.List;
 
 import org.vaadin.vrapper.model.codegen.ClassMemberCode;
@@ -11,6 +12,8 @@ import org.vaadin.vrapper.model.codegen.SnippetGenerator;
 import org.vaadin.vrapper.model.codegen.SourceWriter;
 import org.vaadin.vrapper.model.reflect.ApiMethod;
 import org.vaadin.vrapper.model.reflect.ApiType;
+import org.vaadin.vrapper.model.reflect.ArrayType;
+import org.vaadin.vrapper.model.reflect.PrimitiveType;
 
 import com.vaadin.shared.annotations.DelegateToWidget;
 
@@ -31,6 +34,7 @@ public class StateFieldMethodAction extends MethodAction {
 
     public void setFieldName(String fieldName) {
         this.fieldName = fieldName;
+        markAsChanged();
     }
 
     public String getSetterName() {
@@ -39,6 +43,7 @@ public class StateFieldMethodAction extends MethodAction {
 
     public void setSetterName(String setterName) {
         this.setterName = setterName;
+        markAsChanged();
     }
 
     @Override
@@ -102,10 +107,9 @@ public class StateFieldMethodAction extends MethodAction {
         ApiMethod method = getMethod();
         final String fieldName = getFieldName();
 
-        MethodCode setter = code.getComponentCode().addMethod(
+        final ApiType stateType = code.getSharedStateCode().getType();
+        final MethodCode setter = code.getComponentCode().addMethod(
                 method.getReturnType(), getSetterName(), parameterTypes);
-        setter.addImplementationSnippet(new OneLiner("%s state = getState();",
-                code.getSharedStateCode().getType()));
 
         for (int i = 0; i < parameterTypes.size(); i++) {
             ApiType apiType = parameterTypes.get(i);
@@ -114,45 +118,61 @@ public class StateFieldMethodAction extends MethodAction {
                     paramField, apiType);
             field.setPublic(true);
 
-            setter.addImplementationSnippet(new OneLiner("state.%s = %s;",
-                    paramField, setter.getParameterNames().get(i)));
-
             MethodCode getter = code.getComponentCode().addMethod(apiType,
                     "get" + fieldName + i);
-            getter.addImplementationSnippet(new OneLiner("return %s;",
-                    paramField));
+            getter.addImplementationSnippet(new OneLiner(
+                    "return getState(false).%s;", paramField));
         }
 
-        code.getConnectorCode().addStateChangeSnippet(new SnippetGenerator() {
+        // Only mark the state as dirty if some of the values really change
+        setter.addImplementationSnippet(new SnippetGenerator() {
             @Override
             public void writeSnippet(SourceWriter w) {
+                List<String> parameterNames = setter.getParameterNames();
+
+                w.println("%s oldState = getState(false);", stateType);
                 w.print("if (");
                 for (int i = 0; i < parameterTypes.size(); i++) {
                     if (i != 0) {
                         w.print(" || ");
                     }
-                    w.print("event.hasPropertyChanged(\"%s\")", fieldName + i);
+                    writeChangedCondition(w, parameterTypes.get(i),
+                            parameterNames.get(i), "oldState." + fieldName
+                                    + i, parameterTypes.size() > 1);
                 }
                 w.println(") {");
                 w.indent();
+                w.println("%s state = getState();", stateType);
+                for (int i = 0; i < parameterTypes.size(); i++) {
+                    w.println("state.%s = %s;", fieldName + i,
+                            parameterNames.get(i));
+                }
+                w.outdent();
+                w.println("}");
+            }
+        });
 
+        String[] properties = new String[parameterTypes.size()];
+        for (int i = 0; i < properties.length; i++) {
+            properties[i] = fieldName + i;
+        }
+
+        code.getConnectorCode().addStateChangeHandler(new SnippetGenerator() {
+            @Override
+            public void writeSnippet(SourceWriter w) {
                 w.print("getWidget().%s(", getMethod().getName());
                 for (int i = 0; i < parameterTypes.size(); i++) {
                     if (i != 0) {
                         w.print(", ");
                     }
-                    w.print(fieldName + i);
+                    w.print("getState().%s", fieldName + i);
                 }
                 w.println(");");
-
-                w.outdent();
-                w.print("}");
             }
-        });
-
+        }, properties);
     }
 
-    private void writeSingleParameterCode(Code code, ApiType type) {
+    private void writeSingleParameterCode(Code code, final ApiType type) {
         final String fieldName = getFieldName();
 
         ClassMemberCode field = code.getSharedStateCode().addField(fieldName,
@@ -177,8 +197,17 @@ public class StateFieldMethodAction extends MethodAction {
 
         MethodCode componentSetter = code.getComponentCode().addMethod(
                 getTypeSource().getVoid(), getSetterName(), type);
-        componentSetter.addImplementationSnippet(new OneLiner("getState()."
-                + fieldName + " = " + fieldName + ";"));
+        componentSetter.addImplementationSnippet(new SnippetGenerator() {
+            @Override
+            public void writeSnippet(SourceWriter w) {
+                w.print("if (");
+                writeChangedCondition(w, type, fieldName, "getState(false)."
+                        + fieldName, false);
+                w.println(") {");
+                w.indentln("getState().%s = %s;", fieldName, fieldName);
+                w.println("}");
+            }
+        });
         componentSetter.setParameterNames(fieldName);
 
         MethodCode componentGetter = code.getComponentCode().addMethod(type,
@@ -187,6 +216,41 @@ public class StateFieldMethodAction extends MethodAction {
                 "return getState(false)." + fieldName + ";"));
     }
 
+    /**
+     * Writes a condition that is true if the new value is different from the
+     * current value in the state. Reading the current value with
+     * <code>getState(false)</code> doesn't mark the component as dirty.
+     *
+     * @param combined
+     *            <code>true</code> if the condition is combined with other
+     *            conditions using <code>||</code>
+     */
+    private void writeChangedCondition(SourceWriter w, ApiType type,
+            String newValue, String currentValue, boolean combined) {
+        if (type.getClassName().equals("float")
+                || type.getClassName().equals("double")) {
+            // != would always be true for NaN and false for 0.0 and -0.0
+            Class<?> wrapperClass = type.getClassName().equals("float") ? Float.class
+                    : Double.class;
+            w.print("%s.compare(%s, %s) != 0",
+                    getTypeSource().getType(wrapperClass), newValue,
+                    currentValue);
+        } else if (type instanceof PrimitiveType) {
+            w.print("%s != %s", newValue, currentValue);
+        } else if (type instanceof ArrayType) {
+            ArrayType arrayType = (ArrayType) type;
+            String method = arrayType.getDimensions() == 1 ? "equals"
+                    : "deepEquals";
+            w.print("!%s.%s(%s, %s)", getTypeSource().getType(Arrays.class),
+                    method, newValue, currentValue);
+        } else {
+            String condition = String.format(
+                    "%s == null ? %s != null : !%s.equals(%s)", newValue,
+                    currentValue, newValue, currentValue);
+            w.print(combined ? "(" + condition + ")" : condition);
+        }
+    }
+
     private String getGetterName() {
         ApiType propertyType = getMethod().getParameterTypes().get(0);
         String setterName = getSetterName();
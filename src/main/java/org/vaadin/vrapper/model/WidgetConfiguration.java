@@ -1,5 +1,6 @@
 package org.vaadin.vrapper.model;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -14,6 +15,7 @@ import org.vaadin.vrapper.model.codegen.Code;
 import org.vaadin.vrapper.model.codegen.CodeConfiguration;
 import org.vaadin.vrapper.model.reflect.ApiMethod;
 import org.vaadin.vrapper.model.reflect.ClassType;
+import org.vaadin.vrapper.model.reflect.TypeSource;
 
 import com.vaadin.shared.AbstractComponentState;
 import com.vaadin.ui.AbstractComponent;
@@ -26,6 +28,8 @@ public class WidgetConfiguration {
 
     private ClassType widgetType;
 
+    private TypeSource typeSource;
+
     private Map<ApiMethod, MethodConfiguration> methodConfigurations = new LinkedHashMap<ApiMethod, MethodConfiguration>();
 
     private CodeConfiguration connectorCodeConfig;
@@ -34,8 +38,23 @@ public class WidgetConfiguration {
 
     private CodeConfiguration componentCodeConfig;
 
+    /**
+     * Creates a configuration for a widget from an uploaded jar, resolving
+     * the generated types through the type source of the widget.
+     */
     public WidgetConfiguration(ClassType widgetType) {
+        this(widgetType, widgetType.getTypeSource());
+    }
+
+    /**
+     * @param typeSource
+     *            the type source of the session that the generated classes
+     *            are resolved through. Must not be the shared platform type
+     *            source, even if the widget itself is a platform type.
+     */
+    public WidgetConfiguration(ClassType widgetType, TypeSource typeSource) {
         this.widgetType = widgetType;
+        this.typeSource = typeSource;
 
         Collection<ApiMethod> methods = widgetType.getMethods();
         for (final ApiMethod method : methods) {
@@ -44,16 +63,16 @@ public class WidgetConfiguration {
                 continue;
             }
 
-            MethodConfiguration methodConfiguration = new MethodConfiguration(
-                    this, method);
-            List<MethodAction> actions = methodConfiguration.getActions();
-
-            if (!actions.isEmpty()) {
-                methodConfigurations.put(method, methodConfiguration);
-            }
+            methodConfigurations.put(method, new MethodConfiguration(this,
+                    method));
         }
     }
 
+    /**
+     * Gets the configurations of the methods that might be wrapped. The
+     * actions of a method are only evaluated when they are first used, so
+     * some of the methods may turn out to have no possible actions.
+     */
     public Collection<MethodConfiguration> getMethodConfigurations() {
         return Collections
                 .unmodifiableCollection(methodConfigurations.values());
@@ -63,13 +82,17 @@ public class WidgetConfiguration {
         return widgetType;
     }
 
+    public TypeSource getTypeSource() {
+        return typeSource;
+    }
+
     public CodeConfiguration getConnectorCodeConfiguration() {
         if (connectorCodeConfig == null) {
             connectorCodeConfig = new CodeConfiguration();
             connectorCodeConfig.setClassName(getComponentCodeConfiguration()
                     .getClassName() + "Connector");
             connectorCodeConfig.setPackageName(getWidget().getPackageName());
-            connectorCodeConfig.setSuperClass(getWidget().getTypeSource()
+            connectorCodeConfig.setSuperClass(getTypeSource()
                     .getObjectType(
                             "com.vaadin.client.ui.AbstractComponentConnector"));
         }
@@ -83,7 +106,7 @@ public class WidgetConfiguration {
                     .getClassName() + "State");
             stateCodeConfig.setPackageName(getComponentCodeConfiguration()
                     .getPackageName() + ".shared");
-            stateCodeConfig.setSuperClass(getWidget().getTypeSource().getType(
+            stateCodeConfig.setSuperClass(getTypeSource().getType(
                     AbstractComponentState.class));
         }
         return stateCodeConfig;
@@ -113,13 +136,17 @@ public class WidgetConfiguration {
             }
             componentCodeConfig.setPackageName(packageName);
 
-            componentCodeConfig.setSuperClass(getWidget().getTypeSource()
+            componentCodeConfig.setSuperClass(getTypeSource()
                     .getType(AbstractComponent.class));
         }
         return componentCodeConfig;
     }
 
-    public String buildFullSource() {
+    /**
+     * Creates the code generators for all classes needed by the selected
+     * actions.
+     */
+    public Code buildCode() {
         Code code = new Code(this);
 
         Collection<MethodConfiguration> configurations = getMethodConfigurations();
@@ -131,6 +158,12 @@ public class WidgetConfiguration {
             }
         }
 
+        return code;
+    }
+
+    public String buildFullSource() {
+        Code code = buildCode();
+
         StringBuilder b = new StringBuilder();
         List<AbstractCodeGenerator> classes = code.getClasses();
         boolean first = true;
@@ -146,4 +179,21 @@ public class WidgetConfiguration {
         return b.toString();
     }
 
+    /**
+     * Writes the same source as {@link #buildFullSource()} directly to the
+     * given output.
+     */
+    public void writeFullSource(Appendable out) throws IOException {
+        Code code = buildCode();
+
+        boolean first = true;
+        for (AbstractCodeGenerator codeGenerator : code.getClasses()) {
+            if (!first) {
+                out.append("\n\n");
+            }
+            first = false;
+            codeGenerator.writeCode(out, false);
+        }
+    }
+
 }
@@ -0,0 +1,276 @@
+package org.vaadin.vrapper.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.objectweb.asm.Type;
+import org.vaadin.vrapper.model.reflect.ClassIndex;
+import org.vaadin.vrapper.model.reflect.ClassType;
+import org.vaadin.vrapper.model.reflect.TypeSource;
+
+/**
+ * Finds all public non-abstract Widget subclasses in a jar. Classes are
+ * checked concurrently in chunks through a shared type source, which only
+ * reads class headers and follows each super class chain once.
+ */
+public class WidgetScanner {
+    /**
+     * Receives the results of a scan started with
+     * {@link WidgetScanner#startScan(ExecutorService, int, ScanListener)}.
+     * The methods are called from the threads of the executor, possibly at
+     * the same time.
+     */
+    public interface ScanListener {
+        /**
+         * @param widgetTypes
+         *            the widget types found among the scanned classes, in the
+         *            order they appear in the jar
+         * @param scannedClasses
+         *            the number of classes scanned since the last call
+         */
+        public void classesScanned(List<Type> widgetTypes, int scannedClasses);
+
+        /**
+         * Called once when all classes have been scanned, unless the scan has
+         * been cancelled or has failed.
+         *
+         * @param widgetTypes
+         *            all the widget types found, in the order they appear in
+         *            the jar
+         */
+        public void scanFinished(List<Type> widgetTypes);
+
+        /**
+         * Called once if scanning the classes fails. The scan is cancelled
+         * and the listener is not called any more.
+         */
+        public void scanFailed(Throwable failure);
+    }
+
+    /**
+     * A scan running in the background.
+     */
+    public static class Scan {
+        private final List<Future<?>> futures = new ArrayList<Future<?>>();
+
+        private volatile boolean cancelled = false;
+
+        /**
+         * Stops the scan. Classes that are being scanned are finished, but
+         * the listener is not called any more.
+         */
+        public void cancel() {
+            cancelled = true;
+            synchronized (futures) {
+                for (Future<?> future : futures) {
+                    // Interrupting would close the channel of the jar
+                    future.cancel(false);
+                }
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void addFuture(Future<?> future) {
+            synchronized (futures) {
+                futures.add(future);
+            }
+        }
+    }
+
+    private static final String WIDGET_CLASS = "com.google.gwt.user.client.ui.Widget";
+
+    private static final int MIN_CHUNK_SIZE = 64;
+
+    private final TypeSource typeSource;
+    private final List<String> classNames;
+
+    /**
+     * Creates a scanner for all the classes in the class index of the type
+     * source.
+     */
+    public WidgetScanner(TypeSource typeSource) {
+        this(typeSource, getIndexedClassNames(typeSource));
+    }
+
+    /**
+     * @param classNames
+     *            the internal names of the classes to scan, in the order the
+     *            widget types are returned
+     */
+    public WidgetScanner(TypeSource typeSource, Collection<String> classNames) {
+        this.typeSource = typeSource;
+        this.classNames = new ArrayList<String>(classNames);
+    }
+
+    private static Collection<String> getIndexedClassNames(
+            TypeSource typeSource) {
+        ClassIndex classIndex = typeSource.getClassIndex();
+        if (classIndex == null) {
+            throw new IllegalArgumentException(
+                    "typeSource must have a class index");
+        }
+        return classIndex.getClassNames();
+    }
+
+    /**
+     * @return the number of classes that are scanned
+     */
+    public int getClassCount() {
+        return classNames.size();
+    }
+
+    public List<Type> findWidgetTypes() throws InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            return findWidgetTypes(executor, threads);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @param executor
+     *            the executor to run the scanning tasks in
+     * @param parallelism
+     *            the number of tasks that the executor can run at the same
+     *            time
+     * @return the widget types in the order they appear in the jar
+     */
+    public List<Type> findWidgetTypes(ExecutorService executor,
+            int parallelism) throws InterruptedException {
+        List<Future<List<Type>>> futures = new ArrayList<Future<List<Type>>>();
+        for (final List<String> chunk : getChunks(parallelism)) {
+            futures.add(executor.submit(new Callable<List<Type>>() {
+                @Override
+                public List<Type> call() {
+                    return scan(chunk, null);
+                }
+            }));
+        }
+
+        List<Type> widgetTypes = new ArrayList<Type>();
+        for (Future<List<Type>> future : futures) {
+            try {
+                widgetTypes.addAll(future.get());
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        return widgetTypes;
+    }
+
+    /**
+     * Scans the classes in the background, reporting the widgets to the
+     * listener as they are found. Never waits for the scanning tasks, so it
+     * can be called from a thread of the same executor.
+     *
+     * @param executor
+     *            the executor to run the scanning tasks in
+     * @param parallelism
+     *            the number of tasks that the executor can run at the same
+     *            time
+     * @return the scan, for cancelling it
+     */
+    public Scan startScan(ExecutorService executor, int parallelism,
+            final ScanListener listener) {
+        final Scan scan = new Scan();
+        final List<List<String>> chunks = getChunks(parallelism);
+        if (chunks.isEmpty()) {
+            listener.scanFinished(Collections.<Type> emptyList());
+            return scan;
+        }
+
+        // The results of each chunk, merged in jar order when all are done
+        final AtomicReferenceArray<List<Type>> chunkResults = new AtomicReferenceArray<List<Type>>(
+                chunks.size());
+        final AtomicInteger remainingChunks = new AtomicInteger(chunks.size());
+        final AtomicBoolean failed = new AtomicBoolean();
+        for (int i = 0; i < chunks.size(); i++) {
+            final int chunkIndex = i;
+            scan.addFuture(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    if (scan.isCancelled()) {
+                        return;
+                    }
+                    List<String> chunk = chunks.get(chunkIndex);
+                    try {
+                        List<Type> found = scan(chunk, scan);
+                        chunkResults.set(chunkIndex, found);
+                        if (!scan.isCancelled()) {
+                            listener.classesScanned(found, chunk.size());
+                        }
+                        if (remainingChunks.decrementAndGet() == 0
+                                && !scan.isCancelled()) {
+                            List<Type> widgetTypes = new ArrayList<Type>();
+                            for (int j = 0; j < chunkResults.length(); j++) {
+                                widgetTypes.addAll(chunkResults.get(j));
+                            }
+                            listener.scanFinished(widgetTypes);
+                        }
+                    } catch (RuntimeException e) {
+                        System.err.println("Scanning failed");
+                        e.printStackTrace();
+                        // Only the first failure is reported
+                        if (failed.compareAndSet(false, true)
+                                && !scan.isCancelled()) {
+                            scan.cancel();
+                            listener.scanFailed(e);
+                        }
+                    }
+                }
+            }));
+        }
+        return scan;
+    }
+
+    private List<List<String>> getChunks(int parallelism) {
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, classNames.size()
+                / (parallelism * 4) + 1);
+
+        List<List<String>> chunks = new ArrayList<List<String>>();
+        for (int start = 0; start < classNames.size(); start += chunkSize) {
+            chunks.add(classNames.subList(start,
+                    Math.min(start + chunkSize, classNames.size())));
+        }
+        return chunks;
+    }
+
+    private List<Type> scan(Collection<String> internalNames, Scan scan) {
+        ClassType widgetType = typeSource.getObjectType(WIDGET_CLASS);
+
+        List<Type> found = new ArrayList<Type>();
+        for (String internalName : internalNames) {
+            if (scan != null && scan.isCancelled()) {
+                break;
+            }
+            Type type = Type.getObjectType(internalName);
+            ClassType classType = (ClassType) typeSource
+                    .getTypeByInternalName(type.getDescriptor());
+            try {
+                if (classType.isPublic() && !classType.isAbstract()
+                        && typeSource.isSubtype(classType, widgetType)) {
+                    found.add(type);
+                }
+            } catch (RuntimeException e) {
+                System.out.println("Could not find superclass for "
+                        + internalName.replace('/', '.'));
+            }
+        }
+        return found;
+    }
+}
@@ -1,5 +1,6 @@
 package org.vaadin.vrapper.model.codegen;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -9,15 +10,34 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.vaadin.vrapper.metrics.Metrics;
 import org.vaadin.vrapper.model.reflect.ApiType;
 import org.vaadin.vrapper.model.reflect.ArrayType;
 import org.vaadin.vrapper.model.reflect.ClassType;
 import org.vaadin.vrapper.model.reflect.TypeSource;
 
 public class AbstractCodeGenerator implements ImportResolver {
+	private static final Appendable NULL_OUTPUT = new Appendable() {
+		@Override
+		public Appendable append(CharSequence csq) {
+			return this;
+		}
+
+		@Override
+		public Appendable append(CharSequence csq, int start, int end) {
+			return this;
+		}
+
+		@Override
+		public Appendable append(char c) {
+			return this;
+		}
+	};
+
 	private final String className;
 	private final String packageName;
 	private final ApiType superClass;
+	private final TypeSource typeSource;
 
 	private Map<String, FieldCode> fields = new LinkedHashMap<String, FieldCode>();
 	private Map<String, MethodCode> methods = new LinkedHashMap<String, MethodCode>();
@@ -27,10 +47,18 @@ public class AbstractCodeGenerator implements ImportResolver {
 
 	private Map<String, ClassType> imports = new HashMap<String, ClassType>();
 
-	public AbstractCodeGenerator(CodeConfiguration configuration) {
+	/**
+	 * @param typeSource
+	 *            the type source of the widget configuration that the
+	 *            generated class and the types it refers to are resolved
+	 *            through
+	 */
+	public AbstractCodeGenerator(CodeConfiguration configuration,
+			TypeSource typeSource) {
 		this.className = configuration.getClassName();
 		this.packageName = configuration.getPackageName();
 		this.superClass = configuration.getSuperClass();
+		this.typeSource = typeSource;
 	}
 
 	public ClassMemberCode addField(String fieldName, ApiType type) {
@@ -52,19 +80,94 @@ public class AbstractCodeGenerator implements ImportResolver {
 		return className;
 	}
 
+	/**
+	 * @return the path of the source file relative to the source root, e.g.
+	 *         <code>org/example/Foo.java</code>
+	 */
+	public String getSourcePath() {
+		return getPackageName().replace('.', '/') + '/' + getClassName()
+				+ ".java";
+	}
+
 	public ApiType getSuperClass() {
 		return superClass;
 	}
 
 	public String generateCode(boolean preview) {
-		Collection<ClassMemberCode> classMembers = getClassMembers(preview);
-		if (preview && classMembers.isEmpty()) {
-			return null;
+		long startTime = Metrics.startTime();
+		try {
+			Collection<ClassMemberCode> classMembers = getClassMembers(preview);
+			if (preview && classMembers.isEmpty()) {
+				return null;
+			}
+
+			SourceWriter w = new SourceWriter(this, preview,
+					getIndentString(preview));
+			writeBody(w, classMembers);
+
+			StringBuilder b = new StringBuilder();
+			if (!preview) {
+				try {
+					writeHeader(b);
+				} catch (IOException e) {
+					// StringBuilder doesn't throw
+					throw new RuntimeException(e);
+				}
+			}
+
+			b.append(w.toString());
+			return b.toString();
+		} finally {
+			stopTimer(startTime);
 		}
+	}
 
-		String indentString = preview ? "  " : "    ";
-		SourceWriter w = new SourceWriter(this, preview, indentString);
+	/**
+	 * Writes the code directly to the given output without keeping it in
+	 * memory. The body is first generated without any output to find the
+	 * imports for the header.
+	 *
+	 * @return <code>false</code> if nothing was written because there is
+	 *         nothing to show in the preview
+	 */
+	public boolean writeCode(Appendable out, boolean preview)
+			throws IOException {
+		long startTime = Metrics.startTime();
+		try {
+			Collection<ClassMemberCode> classMembers = getClassMembers(preview);
+			if (preview && classMembers.isEmpty()) {
+				return false;
+			}
 
+			String indentString = getIndentString(preview);
+			if (!preview) {
+				writeBody(new SourceWriter(NULL_OUTPUT, this, preview,
+						indentString), classMembers);
+				writeHeader(out);
+			}
+			writeBody(new SourceWriter(out, this, preview, indentString),
+					classMembers);
+			return true;
+		} catch (SourceWriter.WriteFailedException e) {
+			throw e.getCause();
+		} finally {
+			stopTimer(startTime);
+		}
+	}
+
+	private void stopTimer(long startTime) {
+		if (Metrics.ENABLED) {
+			Metrics.timer("generateCode." + getClass().getSimpleName()).stop(
+					startTime);
+		}
+	}
+
+	private static String getIndentString(boolean preview) {
+		return preview ? "  " : "    ";
+	}
+
+	private void writeBody(SourceWriter w,
+			Collection<ClassMemberCode> classMembers) {
 		writeClassAnnotations(w);
 
 		String type = isInterface() ? "interface" : "class";
@@ -80,30 +183,26 @@ public class AbstractCodeGenerator implements ImportResolver {
 
 		w.outdent();
 		w.println("}");
+	}
 
-		StringBuilder b = new StringBuilder();
-		if (!preview) {
-			b.append("package ").append(getPackageName()).append(";\n\n");
+	private void writeHeader(Appendable out) throws IOException {
+		out.append("package ").append(getPackageName()).append(";\n\n");
 
-			Collection<ClassType> values = imports.values();
-			List<String> importStrings = new ArrayList<String>(values.size());
-			for (ClassType importType : values) {
-				String importPackage = importType.getPackageName();
-				if (!importPackage.equals("java.lang")) {
-					importStrings.add(importType.getClassName());
-				}
-			}
-
-			Collections.sort(importStrings);
-			for (String importString : importStrings) {
-				b.append("import ").append(importString).append(";\n");
+		Collection<ClassType> values = imports.values();
+		List<String> importStrings = new ArrayList<String>(values.size());
+		for (ClassType importType : values) {
+			String importPackage = importType.getPackageName();
+			if (!importPackage.equals("java.lang")) {
+				importStrings.add(importType.getClassName());
 			}
+		}
 
-			b.append('\n');
+		Collections.sort(importStrings);
+		for (String importString : importStrings) {
+			out.append("import ").append(importString).append(";\n");
 		}
 
-		b.append(w.toString());
-		return b.toString();
+		out.append('\n');
 	}
 
 	protected void writeClassAnnotations(SourceWriter w) {
@@ -210,7 +309,7 @@ public class AbstractCodeGenerator implements ImportResolver {
 	}
 
 	protected TypeSource getTypeSource() {
-		return getSuperClass().getTypeSource();
+		return typeSource;
 	}
 
 	@Override
@@ -93,6 +93,8 @@ public abstract class ClassMemberCode implements SnippetGenerator {
 		if (value instanceof String) {
 			String stringValue = (String) value;
 			return '"' + AbstractCodeGenerator.escape(stringValue) + '"';
+		} else if (value instanceof Boolean) {
+			return value.toString();
 		} else {
 			throw new RuntimeException("Unsupported annotation value: " + value);
 		}
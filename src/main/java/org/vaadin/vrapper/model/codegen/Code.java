@@ -1,5 +1,6 @@
 package org.vaadin.vrapper.model.codegen;
 
+import java.lang.annotation.Annotation;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
@@ -20,6 +21,10 @@ public class Code {
 		this.configuration = configuration;
 	}
 
+	public WidgetConfiguration getConfiguration() {
+		return configuration;
+	}
+
 	public ConnectorCodeGenerator getConnectorCode() {
 		CodeConfiguration codeConfiguration = configuration
 				.getConnectorCodeConfiguration();
@@ -30,7 +35,7 @@ public class Code {
 				.get(className);
 		if (generator == null) {
 			generator = new ConnectorCodeGenerator(codeConfiguration,
-					getComponentCode().getType());
+					configuration.getTypeSource(), getComponentCode().getType());
 			classes.put(className, generator);
 
 			final MethodCode getWidget = generator.addMethod(
@@ -55,7 +60,8 @@ public class Code {
 		SharedStateCodeGenerator stateGenerator = (SharedStateCodeGenerator) classes
 				.get(className);
 		if (stateGenerator == null) {
-			stateGenerator = new SharedStateCodeGenerator(codeConfiguration);
+			stateGenerator = new SharedStateCodeGenerator(codeConfiguration,
+					configuration.getTypeSource());
 			classes.put(className, stateGenerator);
 
 			final ClassType stateType = stateGenerator.getType();
@@ -95,7 +101,8 @@ public class Code {
 		ComponentCodeGenerator generator = (ComponentCodeGenerator) classes
 				.get(className);
 		if (generator == null) {
-			generator = new ComponentCodeGenerator(codeConfiguration);
+			generator = new ComponentCodeGenerator(codeConfiguration,
+					configuration.getTypeSource());
 			classes.put(className, generator);
 
 		}
@@ -114,7 +121,7 @@ public class Code {
 		configuration.setClassName(className);
 		configuration.setSuperClass(superClass);
 		AbstractCodeGenerator codeGenerator = new AbstractCodeGenerator(
-				configuration);
+				configuration, this.configuration.getTypeSource());
 
 		classes.put(key, codeGenerator);
 
@@ -143,16 +150,17 @@ public class Code {
 	public ClassType addServerRpcMethod(String interfaceName,
 			ApiType superIntrface, String methodName,
 			List<ApiType> methodParameters, List<String> parameterNames,
-			SnippetGenerator handlerSnippet) {
+			SnippetGenerator handlerSnippet, Annotation... methodAnnotations) {
 		return addRpcMethod(interfaceName, superIntrface, methodName,
 				methodParameters, parameterNames, handlerSnippet,
-				getComponentCode());
+				getComponentCode(), methodAnnotations);
 	}
 
 	private ClassType addRpcMethod(String interfaceName, ApiType superIntrface,
 			String methodName, List<ApiType> methodParameters,
 			List<String> parameterNames, SnippetGenerator handlerSnippet,
-			RpcHandlerCodeGenerator rpcHandlerCodeGenerator) {
+			RpcHandlerCodeGenerator rpcHandlerCodeGenerator,
+			Annotation... methodAnnotations) {
 		String classKey = getSharedPackage() + "." + interfaceName;
 		AbstractCodeGenerator interfaceGenerator = classes.get(classKey);
 		if (interfaceGenerator != null) {
@@ -172,7 +180,8 @@ public class Code {
 			codeConf.setClassName(interfaceName);
 			codeConf.setPackageName(getSharedPackage());
 			codeConf.setSuperClass(superIntrface);
-			interfaceGenerator = new AbstractCodeGenerator(codeConf);
+			interfaceGenerator = new AbstractCodeGenerator(codeConf,
+					configuration.getTypeSource());
 			interfaceGenerator.setInterface(true);
 			classes.put(classKey, interfaceGenerator);
 		}
@@ -183,6 +192,9 @@ public class Code {
 		if (parameterNames != null) {
 			methodDeclaration.setParameterNames(parameterNames);
 		}
+		for (Annotation annotation : methodAnnotations) {
+			methodDeclaration.addAnnotation(annotation);
+		}
 
 		rpcHandlerCodeGenerator.addRpcInit(interfaceGenerator.getType(),
 				methodDeclaration, handlerSnippet);
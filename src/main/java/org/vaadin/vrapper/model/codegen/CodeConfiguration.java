@@ -6,6 +6,9 @@ public class CodeConfiguration {
 	private String className;
 	private String packageName;
 	private ApiType superClass;
+	private boolean deferUpdates = false;
+
+	private int revision = 0;
 
 	public String getClassName() {
 		return className;
@@ -13,6 +16,7 @@ public class CodeConfiguration {
 
 	public void setClassName(String className) {
 		this.className = className;
+		markAsChanged();
 	}
 
 	public String getPackageName() {
@@ -21,6 +25,7 @@ public class CodeConfiguration {
 
 	public void setPackageName(String packageName) {
 		this.packageName = packageName;
+		markAsChanged();
 	}
 
 	public ApiType getSuperClass() {
@@ -29,6 +34,32 @@ public class CodeConfiguration {
 
 	public void setSuperClass(ApiType superClass) {
 		this.superClass = superClass;
+		markAsChanged();
+	}
+
+	/**
+	 * Only used for connectors: whether the widget is updated from a finally
+	 * command that applies all state changes of a response together, instead
+	 * of directly in onStateChanged.
+	 */
+	public boolean isDeferUpdates() {
+		return deferUpdates;
+	}
+
+	public void setDeferUpdates(boolean deferUpdates) {
+		this.deferUpdates = deferUpdates;
+		markAsChanged();
+	}
+
+	/**
+	 * @return a number that is changed every time this configuration is
+	 *         changed
+	 */
+	public int getRevision() {
+		return revision;
 	}
 
+	private void markAsChanged() {
+		revision++;
+	}
 }
@@ -1,12 +1,14 @@
 package org.vaadin.vrapper.model.codegen;
 
+import org.vaadin.vrapper.model.reflect.TypeSource;
 
 public class ComponentCodeGenerator extends RpcHandlerCodeGenerator {
 
 	private MethodCode constructor;
 
-	public ComponentCodeGenerator(CodeConfiguration configuration) {
-		super(configuration);
+	public ComponentCodeGenerator(CodeConfiguration configuration,
+			TypeSource typeSource) {
+		super(configuration, typeSource);
 	}
 
 	public void addToConstructor(SnippetGenerator snippetGenerator) {
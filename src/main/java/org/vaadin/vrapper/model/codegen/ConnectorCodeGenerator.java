@@ -1,19 +1,37 @@
 package org.vaadin.vrapper.model.codegen;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.vaadin.vrapper.model.reflect.ApiType;
 import org.vaadin.vrapper.model.reflect.ClassType;
+import org.vaadin.vrapper.model.reflect.TypeSource;
+import org.vaadin.vrapper.model.reflect.TypeSource.Primitive;
 
 import com.vaadin.shared.ui.Connect;
 
 public class ConnectorCodeGenerator extends RpcHandlerCodeGenerator {
 
 	private MethodCode initMethod;
+	private MethodCode unregisterMethod;
 	private ClassType componentType;
 	private MethodCode stateChangeMethod;
+	private boolean deferUpdates;
+
+	// Handlers by the state properties they depend on, in the order added
+	private final Map<List<String>, List<SnippetGenerator>> stateChangeHandlers = new LinkedHashMap<List<String>, List<SnippetGenerator>>();
 
 	public ConnectorCodeGenerator(CodeConfiguration configuration,
-			ClassType componentType) {
-		super(configuration);
+			TypeSource typeSource, ClassType componentType) {
+		super(configuration, typeSource);
 		this.componentType = componentType;
+		deferUpdates = configuration.isDeferUpdates();
 	}
 
 	public void addInitSnippet(SnippetGenerator snippetGenerator) {
@@ -26,6 +44,18 @@ public class ConnectorCodeGenerator extends RpcHandlerCodeGenerator {
 		initMethod.addImplementationSnippet(snippetGenerator);
 	}
 
+	public void addUnregisterSnippet(SnippetGenerator snippetGenerator) {
+		if (unregisterMethod == null) {
+			unregisterMethod = addMethod(getTypeSource().getVoid(),
+					"onUnregister");
+			unregisterMethod.addImplementationSnippet(new OneLiner(
+					"super.onUnregister();"));
+			unregisterMethod.setOverride(true);
+		}
+
+		unregisterMethod.addImplementationSnippet(snippetGenerator);
+	}
+
 	@Override
 	protected void writeClassAnnotations(SourceWriter w) {
 		if (!w.isPreview()) {
@@ -46,18 +76,168 @@ public class ConnectorCodeGenerator extends RpcHandlerCodeGenerator {
 		});
 	}
 
-	public void addStateChangeSnippet(SnippetGenerator snippetGenerator) {
+	/**
+	 * Adds code to run in onStateChanged when any of the given state
+	 * properties has changed. Each property is checked only once however many
+	 * handlers depend on it, and handlers depending on the same properties
+	 * share one if statement.
+	 */
+	public void addStateChangeHandler(SnippetGenerator handler,
+			String... properties) {
 		if (stateChangeMethod == null) {
 			stateChangeMethod = addMethod(
 					getTypeSource().getVoid(),
-					"onStateChange",
+					"onStateChanged",
 					getTypeSource().getObjectType(
 							"com.vaadin.client.communication.StateChangeEvent"));
 			stateChangeMethod.setOverride(true);
 			stateChangeMethod.setParameterNames("event");
+			stateChangeMethod.addImplementationSnippet(new SnippetGenerator() {
+				@Override
+				public void writeSnippet(SourceWriter w) {
+					if (deferUpdates) {
+						writeDeferredStateChange(w);
+					} else {
+						writeStateChangeDispatcher(w);
+					}
+				}
+			});
+
+			if (deferUpdates) {
+				addDeferredUpdateMethod();
+			}
+		}
+
+		List<String> key = Arrays.asList(properties);
+		if (deferUpdates) {
+			// The changes are remembered until they are applied
+			Set<String> knownProperties = getStateChangeProperties();
+			for (String property : properties) {
+				if (knownProperties.add(property)) {
+					addField(getChangedVariable(property), getBooleanType());
+				}
+			}
+		}
+
+		List<SnippetGenerator> handlers = stateChangeHandlers.get(key);
+		if (handlers == null) {
+			handlers = new ArrayList<SnippetGenerator>();
+			stateChangeHandlers.put(key, handlers);
+		}
+		handlers.add(handler);
+	}
+
+	private void writeStateChangeDispatcher(SourceWriter w) {
+		w.println("super.onStateChanged(event);");
+		w.println();
+
+		// Everything has changed for a new connector
+		w.println("boolean initial = event.isInitialStateChange();");
+		for (String property : getStateChangeProperties()) {
+			w.println("boolean %s = initial || event.hasPropertyChanged(\"%s\");",
+					getChangedVariable(property), escape(property));
 		}
 
-		stateChangeMethod.addImplementationSnippet(snippetGenerator);
+		writeStateChangeHandlers(w);
+	}
+
+	private void writeStateChangeHandlers(SourceWriter w) {
+		for (Entry<List<String>, List<SnippetGenerator>> entry : stateChangeHandlers
+				.entrySet()) {
+			w.println();
+			w.print("if (");
+			List<String> key = entry.getKey();
+			for (int i = 0; i < key.size(); i++) {
+				if (i != 0) {
+					w.print(" || ");
+				}
+				w.print(getChangedVariable(key.get(i)));
+			}
+			w.println(") {");
+			w.indent();
+
+			for (SnippetGenerator handler : entry.getValue()) {
+				handler.writeSnippet(w);
+			}
+
+			w.outdent();
+			w.println("}");
+		}
+	}
+
+	/*
+	 * Collects the changed properties into fields and applies them from a
+	 * finally command, so the widget is updated once after the whole
+	 * response has been handled.
+	 */
+	private void writeDeferredStateChange(SourceWriter w) {
+		w.println("super.onStateChanged(event);");
+		w.println();
+
+		w.println("boolean initial = event.isInitialStateChange();");
+		for (String property : getStateChangeProperties()) {
+			w.println("%s |= initial || event.hasPropertyChanged(\"%s\");",
+					getChangedVariable(property), escape(property));
+		}
+		w.println();
+
+		ClassType schedulerType = getTypeSource().getObjectType(
+				"com.google.gwt.core.client.Scheduler");
+		w.println("if (!updateScheduled) {");
+		w.indent();
+		w.println("updateScheduled = true;");
+		w.println("%s.get().scheduleFinally(new %s.ScheduledCommand() {",
+				schedulerType, schedulerType);
+		w.indent();
+		if (!w.isPreview()) {
+			w.println("@Override");
+		}
+		w.println("public void execute() {");
+		w.indent();
+		w.println("applyStateChanges();");
+		w.outdent();
+		w.println("}");
+		w.outdent();
+		w.println("});");
+		w.outdent();
+		w.println("}");
+	}
+
+	private void addDeferredUpdateMethod() {
+		addField("updateScheduled", getBooleanType());
+
+		MethodCode applyMethod = addMethod(getTypeSource().getVoid(),
+				"applyStateChanges");
+		applyMethod.setPublic(false);
+		applyMethod.addImplementationSnippet(new SnippetGenerator() {
+			@Override
+			public void writeSnippet(SourceWriter w) {
+				w.println("updateScheduled = false;");
+
+				writeStateChangeHandlers(w);
+
+				w.println();
+				for (String property : getStateChangeProperties()) {
+					w.println("%s = false;", getChangedVariable(property));
+				}
+			}
+		});
+	}
+
+	private ApiType getBooleanType() {
+		return getTypeSource().getPrimitiveType(Primitive.BOOLEAN);
+	}
+
+	private Set<String> getStateChangeProperties() {
+		Set<String> properties = new LinkedHashSet<String>();
+		for (List<String> key : stateChangeHandlers.keySet()) {
+			properties.addAll(key);
+		}
+		return properties;
+	}
+
+	private static String getChangedVariable(String property) {
+		return property + "Changed";
 	}
 
 }
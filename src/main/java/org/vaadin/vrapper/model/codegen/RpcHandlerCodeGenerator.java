@@ -8,6 +8,7 @@ import java.util.Map.Entry;
 
 import org.vaadin.vrapper.model.reflect.ApiType;
 import org.vaadin.vrapper.model.reflect.ClassType;
+import org.vaadin.vrapper.model.reflect.TypeSource;
 
 public abstract class RpcHandlerCodeGenerator extends AbstractCodeGenerator {
 
@@ -23,8 +24,9 @@ public abstract class RpcHandlerCodeGenerator extends AbstractCodeGenerator {
 
 	private Map<ClassType, List<RpcInit>> rpcInits = new HashMap<ClassType, List<RpcInit>>();
 
-	public RpcHandlerCodeGenerator(CodeConfiguration configuration) {
-		super(configuration);
+	public RpcHandlerCodeGenerator(CodeConfiguration configuration,
+			TypeSource typeSource) {
+		super(configuration, typeSource);
 	}
 
 	protected void addRpcInit(ClassType rpcInterface,
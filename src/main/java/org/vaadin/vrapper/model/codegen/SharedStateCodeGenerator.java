@@ -1,10 +1,12 @@
 package org.vaadin.vrapper.model.codegen;
 
+import org.vaadin.vrapper.model.reflect.TypeSource;
 
 public class SharedStateCodeGenerator extends AbstractCodeGenerator {
 
-	public SharedStateCodeGenerator(CodeConfiguration configuration) {
-		super(configuration);
+	public SharedStateCodeGenerator(CodeConfiguration configuration,
+			TypeSource typeSource) {
+		super(configuration, typeSource);
 	}
 
 }
@@ -1,7 +1,6 @@
 package org.vaadin.vrapper.model.codegen;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.io.IOException;
 
 import org.vaadin.vrapper.model.reflect.ApiType;
 
@@ -10,17 +9,41 @@ import org.vaadin.vrapper.model.reflect.ApiType;
  */
 public class SourceWriter {
 
-	private final StringWriter buffer = new StringWriter();
+	/**
+	 * Thrown when the underlying {@link Appendable} fails, so that the
+	 * snippets don't have to declare IOException.
+	 */
+	static class WriteFailedException extends RuntimeException {
+		private WriteFailedException(IOException cause) {
+			super(cause);
+		}
+
+		@Override
+		public IOException getCause() {
+			return (IOException) super.getCause();
+		}
+	}
+
 	private int indentLevel = 0;
 	private String indentPrefix = "";
 	private boolean needsIndent;
-	private final PrintWriter out = new PrintWriter(buffer);
+	private final Appendable out;
 	private ImportResolver importResolver;
 	private boolean preview;
 	private final String indentString;
 
 	public SourceWriter(ImportResolver importResolver, boolean preview,
 			String indentString) {
+		this(new StringBuilder(), importResolver, preview, indentString);
+	}
+
+	/**
+	 * Creates a source writer that writes directly to the given output
+	 * instead of buffering the source.
+	 */
+	public SourceWriter(Appendable out, ImportResolver importResolver,
+			boolean preview, String indentString) {
+		this.out = out;
 		this.importResolver = importResolver;
 		this.preview = preview;
 		this.indentString = indentString;
@@ -48,7 +71,8 @@ public class SourceWriter {
 	}
 
 	public void endJavaDocComment() {
-		out.println("*/");
+		append("*/");
+		append("\n");
 		outdent();
 		indentPrefix = "";
 	}
@@ -74,7 +98,7 @@ public class SourceWriter {
 
 	public void print(String s) {
 		maybeIndent();
-		out.print(s);
+		append(s);
 	}
 
 	public void print(String s, Object... args) {
@@ -85,7 +109,7 @@ public class SourceWriter {
 	public void println() {
 		maybeIndent();
 		// Unix-style line endings for consistent behavior across platforms.
-		out.print('\n');
+		append("\n");
 		needsIndent = true;
 	}
 
@@ -107,19 +131,29 @@ public class SourceWriter {
 		}
 	}
 
+	/**
+	 * @return the written source if this writer has its own buffer
+	 */
 	@Override
 	public String toString() {
-		out.flush();
-		return buffer.getBuffer().toString();
+		return out.toString();
 	}
 
 	private void maybeIndent() {
 		if (needsIndent) {
 			needsIndent = false;
 			for (int i = 0; i < indentLevel; i++) {
-				out.print(indentString);
-				out.print(indentPrefix);
+				append(indentString);
+				append(indentPrefix);
 			}
 		}
 	}
+
+	private void append(String s) {
+		try {
+			out.append(s);
+		} catch (IOException e) {
+			throw new WriteFailedException(e);
+		}
+	}
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package org.vaadin.vrapper.model.reflect;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.objectweb.asm.Type;
@@ -11,18 +12,32 @@ public class ApiMethod {
 	private final Method method;
 	private final ApiType declaringType;
 
+	// Resolved on first use, racing threads resolve to the same types
+	private volatile List<ApiType> parameterTypes;
+	private volatile ApiType returnType;
+
 	public ApiMethod(ApiType declaringType, Method method) {
 		this.declaringType = declaringType;
 		this.method = method;
 	}
 
+	/**
+	 * @return an unmodifiable list of the parameter types, shared by all
+	 *         callers
+	 */
 	public List<ApiType> getParameterTypes() {
-		Type[] argumentTypes = method.getArgumentTypes();
-		List<ApiType> parameterTypes = new ArrayList<ApiType>(
-				argumentTypes.length);
-		for (Type type : argumentTypes) {
-			parameterTypes.add(declaringType.getTypeSource()
-					.getTypeByInternalName(type.getDescriptor()));
+		List<ApiType> parameterTypes = this.parameterTypes;
+		if (parameterTypes == null) {
+			Type[] argumentTypes = method.getArgumentTypes();
+			ApiType[] resolvedTypes = new ApiType[argumentTypes.length];
+			for (int i = 0; i < argumentTypes.length; i++) {
+				resolvedTypes[i] = declaringType.getTypeSource()
+						.getTypeByInternalName(argumentTypes[i].getDescriptor());
+			}
+
+			parameterTypes = Collections.unmodifiableList(Arrays
+					.asList(resolvedTypes));
+			this.parameterTypes = parameterTypes;
 		}
 
 		return parameterTypes;
@@ -42,9 +57,13 @@ public class ApiMethod {
 	}
 
 	public ApiType getReturnType() {
-		Type returnType = method.getReturnType();
-		return declaringType.getTypeSource().getTypeByInternalName(
-				returnType.getDescriptor());
+		ApiType returnType = this.returnType;
+		if (returnType == null) {
+			returnType = declaringType.getTypeSource().getTypeByInternalName(
+					method.getReturnType().getDescriptor());
+			this.returnType = returnType;
+		}
+		return returnType;
 	}
 
 	public String getDescriptor() {
@@ -75,8 +94,8 @@ public class ApiMethod {
 
 	public boolean allParametersHasSerializationSupport() {
 		List<ApiType> parameterTypes = getParameterTypes();
-		for (ApiType apiType : parameterTypes) {
-			if (!apiType.hasSerializationSupport()) {
+		for (int i = 0; i < parameterTypes.size(); i++) {
+			if (!parameterTypes.get(i).hasSerializationSupport()) {
 				return false;
 			}
 		}
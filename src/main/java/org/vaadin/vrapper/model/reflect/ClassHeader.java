@@ -0,0 +1,42 @@
+package org.vaadin.vrapper.model.reflect;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.objectweb.asm.ClassReader;
+
+/**
+ * The access flags and super class name of a class, which is all that is
+ * needed to check whether a class is a widget.
+ */
+public class ClassHeader {
+
+    private final int access;
+    private final String superName;
+
+    public ClassHeader(int access, String superName) {
+        this.access = access;
+        this.superName = superName;
+    }
+
+    public int getAccess() {
+        return access;
+    }
+
+    /**
+     * @return the internal name of the super class, or <code>null</code> for
+     *         java.lang.Object
+     */
+    public String getSuperName() {
+        return superName;
+    }
+
+    /**
+     * Reads the header without visiting any fields or methods of the class.
+     */
+    public static ClassHeader read(InputStream inputStream) throws IOException {
+        ClassReader classReader = new ClassReader(inputStream);
+        return new ClassHeader(classReader.getAccess(),
+                classReader.getSuperName());
+    }
+}
@@ -0,0 +1,283 @@
+package org.vaadin.vrapper.model.reflect;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+import org.objectweb.asm.commons.Method;
+
+/**
+ * Metadata for all classes in a jar, persisted on disk in a compact binary
+ * format keyed by the SHA-1 hash of the jar contents. Uploading the same jar
+ * again reads the index instead of parsing every class file with ASM.
+ */
+public class ClassIndex {
+
+    private static final int MAGIC = 0x56524349;
+    private static final int VERSION = 1;
+
+    private final String hash;
+    private final Map<String, ClassMetadata> classes;
+
+    private ClassIndex(String hash, Map<String, ClassMetadata> classes) {
+        this.hash = hash;
+        this.classes = Collections.unmodifiableMap(classes);
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * @param internalName
+     *            the internal name of a class, e.g. java/lang/Object
+     * @return the metadata, or <code>null</code> if the class is not in this
+     *         index
+     */
+    public ClassMetadata get(String internalName) {
+        return classes.get(internalName);
+    }
+
+    public Collection<String> getClassNames() {
+        return classes.keySet();
+    }
+
+    public static File getDefaultIndexDirectory() {
+        return new File(System.getProperty("java.io.tmpdir"), "vrapper-index");
+    }
+
+    public static ClassIndex forJar(File jar, File indexDirectory)
+            throws IOException {
+        return forJar(jar, hash(jar), indexDirectory);
+    }
+
+    public static ClassIndex forJar(File jar, String hash, File indexDirectory)
+            throws IOException {
+        File indexFile = getIndexFile(hash, indexDirectory);
+        if (indexFile.isFile()) {
+            try {
+                return read(hash, indexFile);
+            } catch (IOException e) {
+                System.out.println("Ignoring unreadable index " + indexFile);
+            }
+        }
+
+        ClassIndex index = build(hash, jar);
+        try {
+            index.write(indexFile);
+        } catch (IOException e) {
+            System.out.println("Could not write index " + indexFile);
+            e.printStackTrace();
+        }
+        return index;
+    }
+
+    /**
+     * Deletes the index of a jar that won't be used any more. Nothing else
+     * removes the index files.
+     */
+    public static void delete(String hash, File indexDirectory) {
+        File indexFile = getIndexFile(hash, indexDirectory);
+        if (indexFile.exists() && !indexFile.delete()) {
+            System.out.println("Could not delete index " + indexFile);
+        }
+    }
+
+    private static File getIndexFile(String hash, File indexDirectory) {
+        return new File(indexDirectory, hash + ".idx");
+    }
+
+    public static String hash(File file) throws IOException {
+        MessageDigest digest = createDigest();
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+        return toHex(digest.digest());
+    }
+
+    public static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        StringBuilder b = new StringBuilder(bytes.length * 2);
+        for (byte value : bytes) {
+            b.append(Character.forDigit((value >> 4) & 0xf, 16));
+            b.append(Character.forDigit(value & 0xf, 16));
+        }
+        return b.toString();
+    }
+
+    private static ClassIndex build(String hash, File jar) throws IOException {
+        Map<String, ClassMetadata> classes = new LinkedHashMap<String, ClassMetadata>();
+
+        ZipFile zipFile = new ZipFile(jar);
+        try {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry zipEntry = entries.nextElement();
+                String name = zipEntry.getName();
+                if (!name.endsWith(".class")) {
+                    continue;
+                }
+
+                String internalName = name.substring(0, name.length() - 6);
+                InputStream inputStream = zipFile.getInputStream(zipEntry);
+                try {
+                    classes.put(internalName, ClassMetadata.read(inputStream));
+                } catch (Exception e) {
+                    System.out.println("Ignoring " + internalName);
+                } finally {
+                    IOUtils.closeQuietly(inputStream);
+                }
+            }
+        } finally {
+            zipFile.close();
+        }
+
+        return new ClassIndex(hash, classes);
+    }
+
+    private static ClassIndex read(String hash, File indexFile)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(indexFile)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unsupported index format");
+            }
+
+            String[] strings = new String[in.readInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = in.readUTF();
+            }
+
+            int classCount = in.readInt();
+            Map<String, ClassMetadata> classes = new LinkedHashMap<String, ClassMetadata>(
+                    classCount * 2);
+            for (int i = 0; i < classCount; i++) {
+                String internalName = strings[in.readInt()];
+                int access = in.readInt();
+                int superIndex = in.readInt();
+                String superName = superIndex == -1 ? null
+                        : strings[superIndex];
+
+                int methodCount = in.readInt();
+                List<Method> methods = new ArrayList<Method>(methodCount);
+                for (int j = 0; j < methodCount; j++) {
+                    String name = strings[in.readInt()];
+                    String descriptor = strings[in.readInt()];
+                    methods.add(new Method(name, descriptor));
+                }
+
+                classes.put(internalName, new ClassMetadata(access,
+                        superName, methods));
+            }
+
+            return new ClassIndex(hash, classes);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private void write(File indexFile) throws IOException {
+        // Names and descriptors repeat a lot, so they are stored only once
+        Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+        for (Entry<String, ClassMetadata> entry : classes.entrySet()) {
+            addString(strings, entry.getKey());
+            ClassMetadata metadata = entry.getValue();
+            if (metadata.getSuperName() != null) {
+                addString(strings, metadata.getSuperName());
+            }
+            for (Method method : metadata.getMethods()) {
+                addString(strings, method.getName());
+                addString(strings, method.getDescriptor());
+            }
+        }
+
+        File directory = indexFile.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+
+        // Write to a temporary file first to never leave a partial index
+        File tempFile = File.createTempFile(hash, ".tmp", directory);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tempFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeInt(strings.size());
+            for (String string : strings.keySet()) {
+                out.writeUTF(string);
+            }
+
+            out.writeInt(classes.size());
+            for (Entry<String, ClassMetadata> entry : classes.entrySet()) {
+                ClassMetadata metadata = entry.getValue();
+                out.writeInt(strings.get(entry.getKey()).intValue());
+                out.writeInt(metadata.getAccess());
+                if (metadata.getSuperName() == null) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(strings.get(metadata.getSuperName())
+                            .intValue());
+                }
+
+                out.writeInt(metadata.getMethods().size());
+                for (Method method : metadata.getMethods()) {
+                    out.writeInt(strings.get(method.getName()).intValue());
+                    out.writeInt(strings.get(method.getDescriptor())
+                            .intValue());
+                }
+            }
+            out.close();
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+
+        if (!tempFile.renameTo(indexFile)) {
+            tempFile.delete();
+            if (!indexFile.isFile()) {
+                throw new IOException("Could not create " + indexFile);
+            }
+        }
+    }
+
+    private static void addString(Map<String, Integer> strings, String string) {
+        if (!strings.containsKey(string)) {
+            strings.put(string, Integer.valueOf(strings.size()));
+        }
+    }
+}
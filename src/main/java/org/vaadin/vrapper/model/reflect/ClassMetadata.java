@@ -0,0 +1,103 @@
+package org.vaadin.vrapper.model.reflect;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.Method;
+
+/**
+ * The parts of a class file that {@link ClassType} needs: access flags, super
+ * class name and the public non-static methods.
+ */
+public class ClassMetadata extends ClassHeader {
+
+    private final List<Method> methods;
+
+    public ClassMetadata(int access, String superName, List<Method> methods) {
+        super(access, superName);
+        this.methods = Collections.unmodifiableList(methods);
+    }
+
+    public List<Method> getMethods() {
+        return methods;
+    }
+
+    /**
+     * Finds the metadata of a class, using the index if it contains the class
+     * and otherwise parsing the class found by the resolver.
+     */
+    public static ClassMetadata find(Resolver resolver, ClassIndex classIndex,
+            String internalName) throws IOException {
+        return (ClassMetadata) find(resolver, classIndex, internalName, true);
+    }
+
+    /**
+     * Finds only the header of a class. Parsing the methods is skipped unless
+     * the class is in the index, which already has the full metadata.
+     */
+    public static ClassHeader findHeader(Resolver resolver,
+            ClassIndex classIndex, String internalName) throws IOException {
+        return find(resolver, classIndex, internalName, false);
+    }
+
+    private static ClassHeader find(Resolver resolver, ClassIndex classIndex,
+            String internalName, boolean readMethods) throws IOException {
+        if (classIndex != null) {
+            ClassMetadata metadata = classIndex.get(internalName);
+            if (metadata != null) {
+                return metadata;
+            }
+        }
+
+        InputStream inputStream = resolver.findClassStream(internalName);
+        if (inputStream == null) {
+            throw new IOException("Could not find " + internalName);
+        }
+        try {
+            if (readMethods) {
+                return read(inputStream);
+            } else {
+                return ClassHeader.read(inputStream);
+            }
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    public static ClassMetadata read(InputStream inputStream)
+            throws IOException {
+        ClassReader classReader = new ClassReader(inputStream);
+
+        final List<Method> methods = new ArrayList<Method>();
+        classReader.accept(new ClassVisitor(Opcodes.ASM4) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name,
+                    String desc, String signature, String[] exceptions) {
+                if (isPublicNotStatic(access)) {
+                    if (name.equals("<init>")) {
+                        // Ignoring constructors for now
+                    } else {
+                        methods.add(new Method(name, desc));
+                    }
+                }
+                return null;
+            }
+
+            private boolean isPublicNotStatic(int access) {
+                return (access & Opcodes.ACC_PUBLIC) != 0
+                        && (access & Opcodes.ACC_STATIC) == 0;
+            }
+        }, ClassReader.SKIP_CODE);
+
+        return new ClassMetadata(classReader.getAccess(),
+                classReader.getSuperName(), methods);
+    }
+}
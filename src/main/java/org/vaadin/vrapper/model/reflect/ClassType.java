@@ -1,29 +1,39 @@
 package org.vaadin.vrapper.model.reflect;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
-import org.apache.commons.io.IOUtils;
-import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassVisitor;
-import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.Method;
+import org.vaadin.vrapper.metrics.Counter;
+import org.vaadin.vrapper.metrics.Metrics;
+import org.vaadin.vrapper.metrics.Timer;
 
 public class ClassType extends ApiType {
 
-    private ClassType superType;
-    private final Map<String, ApiMethod> methods = new LinkedHashMap<String, ApiMethod>();
-
-    private boolean loaded = false;
+    private static final Counter headerLoads = Metrics
+            .counter("classType.headerLoads");
+    private static final Timer loadTimer = Metrics.timer("classType.load");
 
+    // Written only while holding the lock, published through headerLoaded
+    private ClassType superType;
     private boolean isPublic;
     private boolean isAbstract;
+    private RuntimeException headerFailure;
+
+    // Written only while holding the lock, published through loaded
+    private Map<String, ApiMethod> methods;
+    private RuntimeException loadFailure;
+
+    // Immutable once set, so racing threads can only compute equal arrays
+    private volatile ClassType[] ancestors;
+
+    private volatile boolean headerLoaded = false;
+    private volatile boolean loaded = false;
 
     public ClassType(Type type, TypeSource typeSource) {
         super(typeSource, type);
@@ -36,65 +46,103 @@ public class ClassType extends ApiType {
     }
 
     public ClassType getSuperType() {
-        loadIfNeeded();
+        loadHeaderIfNeeded();
         return superType;
     }
 
-    private void loadIfNeeded() {
-        if (loaded) {
-            return;
+    /*
+     * The header is enough for checking access flags and the type hierarchy,
+     * so the methods are only read when they are actually needed.
+     */
+    private void loadHeaderIfNeeded() {
+        if (!headerLoaded) {
+            synchronized (this) {
+                if (!headerLoaded) {
+                    try {
+                        loadHeader();
+                    } catch (RuntimeException e) {
+                        headerFailure = e;
+                    }
+                    headerLoaded = true;
+                }
+            }
         }
 
-        InputStream inputStream = null;
+        if (headerFailure != null) {
+            throw headerFailure;
+        }
+    }
+
+    private void loadHeader() {
+        headerLoads.increment();
+        ClassHeader header;
         try {
-            String name = getType().getClassName().replace('.', '/');
-            inputStream = getTypeSource().getResolver().findClassStream(name);
-            if (inputStream == null) {
-                throw new IOException("Could not find " + name);
-            }
+            header = getTypeSource().getClassHeader(
+                    getType().getInternalName());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
 
-            ClassReader classReader = new ClassReader(inputStream);
-            classReader.accept(new ClassVisitor(Opcodes.ASM4) {
-                @Override
-                public MethodVisitor visitMethod(int access, String name,
-                        String desc, String signature, String[] exceptions) {
-                    if (isPublicNotStatic(access)) {
-                        ApiMethod apiMethod = new ApiMethod(ClassType.this,
-                                new Method(name, desc));
-                        if (name.equals("<init>")) {
-                            // Ignoring constructors for now
-                        } else {
-                            methods.put(name + desc, apiMethod);
-                        }
-                    }
-                    return null;
-                }
+        String superName = header.getSuperName();
+        if (superName != null) {
+            superType = (ClassType) getTypeSource().getTypeByInternalName(
+                    Type.getObjectType(superName).getDescriptor());
+        }
+        isPublic = (header.getAccess() & Opcodes.ACC_PUBLIC) != 0;
+        isAbstract = (header.getAccess() & Opcodes.ACC_ABSTRACT) != 0;
+    }
 
-                private boolean isPublicNotStatic(int access) {
-                    return (access & Opcodes.ACC_PUBLIC) != 0
-                            && (access & Opcodes.ACC_STATIC) == 0;
-                }
-            }, ClassReader.SKIP_CODE);
-            String superName = classReader.getSuperName();
-            isPublic = (classReader.getAccess() & Opcodes.ACC_PUBLIC) != 0;
-            isAbstract = (classReader.getAccess() & Opcodes.ACC_ABSTRACT) != 0;
-            if (superName != null) {
-                superType = (ClassType) getTypeSource().getTypeByInternalName(
-                        Type.getObjectType(superName).getDescriptor());
-                Collection<ApiMethod> superMethods = superType.getMethods();
-                for (ApiMethod apiMethod : superMethods) {
-                    methods.put(
-                            apiMethod.getName() + apiMethod.getDescriptor(),
-                            apiMethod);
+    private void loadIfNeeded() {
+        loadHeaderIfNeeded();
+
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    long startTime = Metrics.startTime();
+                    try {
+                        load();
+                    } catch (RuntimeException e) {
+                        loadFailure = e;
+                    }
+                    loadTimer.stop(startTime);
+                    loaded = true;
                 }
             }
+        }
 
+        if (loadFailure != null) {
+            throw loadFailure;
+        }
+    }
+
+    /*
+     * Holds the lock of this type while loading the super type, so locks are
+     * always taken from subclass to super class and can't deadlock.
+     */
+    private void load() {
+        ClassMetadata metadata;
+        try {
+            metadata = getTypeSource().getClassMetadata(
+                    getType().getInternalName());
         } catch (IOException e) {
             throw new RuntimeException(e);
-        } finally {
-            loaded = true;
-            IOUtils.closeQuietly(inputStream);
         }
+
+        Map<String, ApiMethod> methods = new LinkedHashMap<String, ApiMethod>();
+        for (Method method : metadata.getMethods()) {
+            methods.put(method.getName() + method.getDescriptor(),
+                    new ApiMethod(this, method));
+        }
+
+        if (superType != null) {
+            Collection<ApiMethod> superMethods = superType.getMethods();
+            for (ApiMethod apiMethod : superMethods) {
+                methods.put(apiMethod.getName() + apiMethod.getDescriptor(),
+                        apiMethod);
+            }
+        }
+
+        this.methods = methods;
     }
 
     @Override
@@ -128,22 +176,39 @@ public class ClassType extends ApiType {
     }
 
     public boolean isPublic() {
-        loadIfNeeded();
+        loadHeaderIfNeeded();
         return isPublic;
     }
 
     public boolean isAbstract() {
-        loadIfNeeded();
+        loadHeaderIfNeeded();
         return isAbstract;
     }
 
     public boolean isOrExtends(ClassType objectType) {
-        if (this.equals(objectType)) {
-            return true;
-        } else if (getSuperType() == null) {
-            return false;
-        } else {
-            return getSuperType().isOrExtends(objectType);
+        return getTypeSource().isSubtype(this, objectType);
+    }
+
+    /**
+     * Gets all super classes of this type ordered by depth, starting from
+     * java.lang.Object and ending with this type. The array is built from the
+     * array of the super type, so each chain is only followed once.
+     */
+    ClassType[] getAncestors() {
+        ClassType[] ancestors = this.ancestors;
+        if (ancestors == null) {
+            ClassType superType = getSuperType();
+            if (superType == null) {
+                ancestors = new ClassType[] { this };
+            } else {
+                ClassType[] superAncestors = superType.getAncestors();
+                ancestors = new ClassType[superAncestors.length + 1];
+                System.arraycopy(superAncestors, 0, ancestors, 0,
+                        superAncestors.length);
+                ancestors[superAncestors.length] = this;
+            }
+            this.ancestors = ancestors;
         }
+        return ancestors;
     }
 }
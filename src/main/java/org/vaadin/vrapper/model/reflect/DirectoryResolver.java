@@ -0,0 +1,39 @@
+package org.vaadin.vrapper.model.reflect;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Resolves classes from a directory of compiled classes, e.g.
+ * target/classes.
+ */
+public class DirectoryResolver implements Resolver {
+
+    private final File directory;
+
+    public DirectoryResolver(File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public InputStream findClassStream(String name) throws IOException {
+        File file = new File(directory, name + ".class");
+        if (file.isFile()) {
+            return new FileInputStream(file);
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Nothing to do
+    }
+
+}
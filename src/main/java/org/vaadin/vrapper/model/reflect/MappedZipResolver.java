@@ -0,0 +1,278 @@
+package org.vaadin.vrapper.model.reflect;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Resolves classes from a memory mapped zip file. The central directory is
+ * read once into a table of class entries, after which stored classes are
+ * read straight from the mapped buffer and deflated classes are inflated
+ * from it using pooled inflaters. Zip64 archives are not supported.
+ */
+public class MappedZipResolver implements Resolver {
+
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int CENTRAL_DIRECTORY_ENTRY = 0x02014b50;
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static class Entry {
+        private final int method;
+        private final int compressedSize;
+        private final int size;
+        private final int localHeaderOffset;
+
+        private Entry(int method, int compressedSize, int size,
+                int localHeaderOffset) {
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+    }
+
+    private static class Inflation {
+        private final Inflater inflater = new Inflater(true);
+        private byte[] input = new byte[8192];
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            return buffer.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    private final File file;
+    private volatile ByteBuffer buffer;
+    private final Map<String, Entry> entries;
+
+    private final Queue<Inflation> inflations = new ConcurrentLinkedQueue<Inflation>();
+
+    public MappedZipResolver(File file) throws IOException {
+        this.file = file;
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new ZipException(file + " is too large to map");
+            }
+            // The mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        } finally {
+            randomAccessFile.close();
+        }
+
+        entries = readCentralDirectory(buffer);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    private Map<String, Entry> readCentralDirectory(ByteBuffer buffer)
+            throws IOException {
+        int end = findEndOfCentralDirectory(buffer);
+
+        int entryCount = buffer.getShort(end + 10) & 0xffff;
+        long directoryOffset = buffer.getInt(end + 16) & 0xffffffffL;
+        if (entryCount == 0xffff || directoryOffset == 0xffffffffL) {
+            throw new ZipException("Zip64 is not supported: " + file);
+        }
+
+        Map<String, Entry> entries = new HashMap<String, Entry>(
+                entryCount * 2);
+        int offset = (int) directoryOffset;
+        for (int i = 0; i < entryCount; i++) {
+            if (buffer.getInt(offset) != CENTRAL_DIRECTORY_ENTRY) {
+                throw new ZipException("Invalid central directory in " + file);
+            }
+
+            int method = buffer.getShort(offset + 10) & 0xffff;
+            int compressedSize = buffer.getInt(offset + 20);
+            int size = buffer.getInt(offset + 24);
+            int nameLength = buffer.getShort(offset + 28) & 0xffff;
+            int extraLength = buffer.getShort(offset + 30) & 0xffff;
+            int commentLength = buffer.getShort(offset + 32) & 0xffff;
+            int localHeaderOffset = buffer.getInt(offset + 42);
+
+            String name = readString(buffer, offset + 46, nameLength);
+            if (name.endsWith(".class")) {
+                String internalName = name.substring(0, name.length() - 6);
+                entries.put(internalName, new Entry(method, compressedSize,
+                        size, localHeaderOffset));
+            }
+
+            offset += 46 + nameLength + extraLength + commentLength;
+        }
+
+        return entries;
+    }
+
+    private int findEndOfCentralDirectory(ByteBuffer buffer)
+            throws ZipException {
+        int last = buffer.limit() - END_OF_CENTRAL_DIRECTORY_SIZE;
+        // The record is followed by a comment of at most 0xffff bytes
+        int first = Math.max(0, last - 0xffff);
+        for (int offset = last; offset >= first; offset--) {
+            if (buffer.getInt(offset) == END_OF_CENTRAL_DIRECTORY) {
+                return offset;
+            }
+        }
+        throw new ZipException("Not a zip file: " + file);
+    }
+
+    private static String readString(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset);
+        duplicate.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    @Override
+    public InputStream findClassStream(String name) throws IOException {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            return null;
+        }
+
+        ByteBuffer buffer = this.buffer;
+        if (buffer == null) {
+            throw new IOException(file + " has been closed");
+        }
+
+        int offset = entry.localHeaderOffset;
+        if (buffer.getInt(offset) != LOCAL_FILE_HEADER) {
+            throw new ZipException("Invalid local header for " + name);
+        }
+        int dataOffset = offset + LOCAL_FILE_HEADER_SIZE
+                + (buffer.getShort(offset + 26) & 0xffff)
+                + (buffer.getShort(offset + 28) & 0xffff);
+
+        ByteBuffer data = buffer.duplicate();
+        data.position(dataOffset);
+        data.limit(dataOffset + entry.compressedSize);
+
+        if (entry.method == STORED) {
+            return new ByteBufferInputStream(data.slice());
+        } else if (entry.method == DEFLATED) {
+            return new ByteArrayInputStream(inflate(data, entry));
+        } else {
+            throw new ZipException("Unsupported compression method "
+                    + entry.method + " for " + name);
+        }
+    }
+
+    private byte[] inflate(ByteBuffer data, Entry entry) throws ZipException {
+        Inflation inflation = inflations.poll();
+        if (inflation == null) {
+            inflation = new Inflation();
+        }
+
+        try {
+            // Inflater needs an extra dummy byte when using nowrap
+            int inputLength = entry.compressedSize + 1;
+            if (inflation.input.length < inputLength) {
+                inflation.input = new byte[inputLength];
+            }
+            data.get(inflation.input, 0, entry.compressedSize);
+            inflation.input[entry.compressedSize] = 0;
+
+            Inflater inflater = inflation.inflater;
+            inflater.setInput(inflation.input, 0, inputLength);
+
+            byte[] bytes = new byte[entry.size];
+            int length = 0;
+            while (length < bytes.length && !inflater.finished()) {
+                int inflated = inflater.inflate(bytes, length, bytes.length
+                        - length);
+                if (inflated == 0) {
+                    // All input has been given, so nothing more will come
+                    break;
+                }
+                length += inflated;
+            }
+
+            if (length != bytes.length) {
+                throw new ZipException("Unexpected end of deflated data");
+            }
+            return bytes;
+        } catch (DataFormatException e) {
+            ZipException zipException = new ZipException(e.getMessage());
+            zipException.initCause(e);
+            throw zipException;
+        } finally {
+            inflation.inflater.reset();
+            inflations.offer(inflation);
+            // close() may have emptied the pool before the offer
+            if (buffer == null) {
+                endInflaters();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The mapping is released when the buffer is garbage collected
+        buffer = null;
+
+        endInflaters();
+    }
+
+    private void endInflaters() {
+        Inflation inflation;
+        while ((inflation = inflations.poll()) != null) {
+            inflation.inflater.end();
+        }
+    }
+
+}
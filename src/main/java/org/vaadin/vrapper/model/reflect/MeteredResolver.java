@@ -0,0 +1,72 @@
+package org.vaadin.vrapper.model.reflect;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.vaadin.vrapper.metrics.Counter;
+import org.vaadin.vrapper.metrics.Metrics;
+
+/**
+ * Counts the classes found and not found through another resolver, and the
+ * bytes read from the classes that were found.
+ */
+public class MeteredResolver implements Resolver {
+
+    private static final Counter hits = Metrics.counter("resolver.hits");
+    private static final Counter misses = Metrics.counter("resolver.misses");
+    private static final Counter bytesRead = Metrics
+            .counter("resolver.bytesRead");
+
+    static {
+        Metrics.ratio("resolver.hitRatio", hits, misses);
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value != -1) {
+                bytesRead.increment();
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count > 0) {
+                bytesRead.add(count);
+            }
+            return count;
+        }
+    }
+
+    private final Resolver resolver;
+
+    public MeteredResolver(Resolver resolver) {
+        this.resolver = resolver;
+    }
+
+    @Override
+    public InputStream findClassStream(String name) throws IOException {
+        InputStream inputStream = resolver.findClassStream(name);
+        if (inputStream == null) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        return new CountingInputStream(inputStream);
+    }
+
+    @Override
+    public void close() throws IOException {
+        resolver.close();
+    }
+
+}
@@ -0,0 +1,205 @@
+package org.vaadin.vrapper.model.reflect;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.vaadin.vrapper.metrics.Counter;
+import org.vaadin.vrapper.metrics.Metrics;
+import org.vaadin.vrapper.model.StateFieldMethodAction;
+
+/**
+ * Finds out whether types can be serialized by following the graph of bean
+ * properties from a type. The strongly connected components of the graph are
+ * found using Tarjan's algorithm so that types referencing each other get
+ * their verdict together. Every type visited by the analysis gets a verdict
+ * in the shared cache, so the same graph is never walked twice.
+ * <p>
+ * A type is serializable if it is an enum, or a bean with at least one
+ * property where the types of all properties are serializable. Running into
+ * any type that is not serializable aborts the analysis, since all types
+ * still on the stack can reach that type.
+ * <p>
+ * An analysis instance is not thread safe and should only be used once.
+ */
+class SerializabilityAnalysis {
+
+    private static final Counter analyses = Metrics
+            .counter("serializability.analyses");
+    private static final Counter visitedTypes = Metrics
+            .counter("serializability.visitedTypes");
+
+    private final TypeSource typeSource;
+    private final Map<ApiType, Boolean> verdicts;
+
+    private final Map<ApiType, Integer> indices = new HashMap<ApiType, Integer>();
+    private final Map<ApiType, Integer> lowLinks = new HashMap<ApiType, Integer>();
+    private final List<ApiType> stack = new ArrayList<ApiType>();
+    private final Set<ApiType> onStack = new HashSet<ApiType>();
+
+    SerializabilityAnalysis(TypeSource typeSource,
+            Map<ApiType, Boolean> verdicts) {
+        this.typeSource = typeSource;
+        this.verdicts = verdicts;
+    }
+
+    boolean analyze(ApiType type) {
+        type = getComponentType(type);
+
+        Boolean knownVerdict = getKnownVerdict(type);
+        if (knownVerdict != null) {
+            return knownVerdict.booleanValue();
+        }
+
+        analyses.increment();
+        if (visit(type)) {
+            return true;
+        } else {
+            for (ApiType apiType : stack) {
+                verdicts.put(apiType, Boolean.FALSE);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @return <code>false</code> if a type that is not serializable has been
+     *         found, in which case the analysis should be aborted
+     */
+    private boolean visit(ApiType type) {
+        visitedTypes.increment();
+        int index = indices.size();
+        indices.put(type, Integer.valueOf(index));
+        lowLinks.put(type, Integer.valueOf(index));
+        stack.add(type);
+        onStack.add(type);
+
+        Collection<ApiType> dependencies = findDependencies(type);
+        if (dependencies == null) {
+            return false;
+        }
+
+        for (ApiType dependency : dependencies) {
+            dependency = getComponentType(dependency);
+
+            Boolean knownVerdict = getKnownVerdict(dependency);
+            if (knownVerdict == Boolean.FALSE) {
+                return false;
+            } else if (knownVerdict == Boolean.TRUE) {
+                continue;
+            }
+
+            Integer dependencyIndex = indices.get(dependency);
+            if (dependencyIndex == null) {
+                if (!visit(dependency)) {
+                    return false;
+                }
+                updateLowLink(type, lowLinks.get(dependency).intValue());
+            } else if (onStack.contains(dependency)) {
+                updateLowLink(type, dependencyIndex.intValue());
+            }
+        }
+
+        if (lowLinks.get(type).intValue() == index) {
+            // Root of a component without any unserializable dependencies
+            ApiType member;
+            do {
+                member = stack.remove(stack.size() - 1);
+                onStack.remove(member);
+                verdicts.put(member, Boolean.TRUE);
+            } while (member != type);
+        }
+
+        return true;
+    }
+
+    private void updateLowLink(ApiType type, int lowLink) {
+        if (lowLink < lowLinks.get(type).intValue()) {
+            lowLinks.put(type, Integer.valueOf(lowLink));
+        }
+    }
+
+    private static ApiType getComponentType(ApiType type) {
+        if (type instanceof ArrayType) {
+            return ((ArrayType) type).getElementType();
+        } else {
+            return type;
+        }
+    }
+
+    private Boolean getKnownVerdict(ApiType type) {
+        if (type instanceof PrimitiveType) {
+            return Boolean.TRUE;
+        }
+
+        Boolean verdict = verdicts.get(type);
+        if (verdict == null && type.getTypeSource() != typeSource) {
+            // Types from another type source are analyzed by that source
+            verdict = Boolean.valueOf(type.getTypeSource().isSerializable(type));
+        }
+        return verdict;
+    }
+
+    /**
+     * @return the types of the bean properties of the type, or
+     *         <code>null</code> if the type can't be serialized regardless of
+     *         its dependencies
+     */
+    private Collection<ApiType> findDependencies(ApiType type) {
+        if (!(type instanceof ClassType)) {
+            throw new RuntimeException(
+                    "Only ClassType expected here, but got : "
+                            + type.getClass());
+        }
+
+        ClassType classType = (ClassType) type;
+        if (classType.isOrExtends(typeSource
+                .getObjectType("com.google.gwt.core.client.JavaScriptObject"))) {
+            return null;
+        } else if (classType.isOrExtends(typeSource
+                .getObjectType("java.lang.Enum"))) {
+            // Enum is basically always serializable (unless it has JSO
+            // fields)
+            return new ArrayList<ApiType>();
+        }
+
+        Collection<ApiMethod> methods = classType.getMethods();
+        HashSet<String> setters = new HashSet<String>();
+
+        for (ApiMethod method : methods) {
+            if (method.getName().startsWith("set")
+                    && method.getParameterTypes().size() == 1) {
+                setters.add(StateFieldMethodAction.getPropertyName(method));
+            }
+        }
+
+        if (setters.isEmpty()) {
+            // Clearly not a bean
+            return null;
+        }
+
+        // Check the type of getters that have setters
+        List<ApiType> dependencies = new ArrayList<ApiType>();
+        for (ApiMethod method : methods) {
+            String name = method.getName();
+            if ((name.startsWith("get") || name.startsWith("is"))
+                    && method.getParameterTypes().isEmpty()
+                    && setters.remove(StateFieldMethodAction
+                            .getPropertyName(method))) {
+                ApiType returnType = method.getReturnType();
+                if (!returnType.equals(typeSource.getVoid())) {
+                    dependencies.add(returnType);
+                }
+            }
+        }
+
+        if (dependencies.isEmpty()) {
+            return null;
+        }
+        return dependencies;
+    }
+}
@@ -1,19 +1,25 @@
 package org.vaadin.vrapper.model.reflect;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.objectweb.asm.Type;
-import org.vaadin.vrapper.model.StateFieldMethodAction;
+import org.vaadin.vrapper.metrics.Counter;
+import org.vaadin.vrapper.metrics.Metrics;
 
+/**
+ * Creates and caches the types resolved through a {@link Resolver}. Safe to
+ * use from multiple threads; each type is created and loaded exactly once.
+ */
 public class TypeSource {
 
     public static enum Primitive {
@@ -43,20 +49,79 @@ public class TypeSource {
             .unmodifiableCollection(Arrays
                     .asList("com.vaadin.client.ApplicationConnection"));
 
+    private static final Collection<String> platformTypeNames = Collections
+            .unmodifiableCollection(Arrays.asList("java.lang.Object",
+                    "java.lang.Enum", "java.lang.String",
+                    "com.google.gwt.core.client.JavaScriptObject",
+                    "com.google.gwt.user.client.ui.UIObject",
+                    "com.google.gwt.user.client.ui.Widget",
+                    "com.google.gwt.event.shared.HandlerRegistration",
+                    "com.vaadin.client.ui.AbstractComponentConnector",
+                    "com.vaadin.client.communication.StateChangeEvent",
+                    "com.vaadin.shared.AbstractComponentState",
+                    "com.vaadin.shared.communication.ClientRpc",
+                    "com.vaadin.shared.communication.ServerRpc",
+                    "com.vaadin.server.Resource",
+                    "com.vaadin.ui.AbstractComponent"));
+
+    private static final Counter cacheHits = Metrics
+            .counter("typeSource.hits");
+    private static final Counter cacheMisses = Metrics
+            .counter("typeSource.misses");
+
+    static {
+        Metrics.ratio("typeSource.hitRatio", cacheHits, cacheMisses);
+    }
+
     private final Resolver resolver;
-    private final Map<Type, ApiType> cache = new HashMap<Type, ApiType>();
+    // For hasClass, since a class that isn't found is not a miss there
+    private final Resolver unmeteredResolver;
+    private final ClassIndex classIndex;
+    private final TypeSource platformTypes;
+    private final boolean shared;
+    private final ConcurrentMap<Type, ApiType> cache = new ConcurrentHashMap<Type, ApiType>();
 
-    private Map<ApiType, Boolean> serialiableCache = new HashMap<ApiType, Boolean>();
+    private final Map<ApiType, Boolean> serialiableCache = new ConcurrentHashMap<ApiType, Boolean>();
 
     public TypeSource(Resolver resolver) {
-        this.resolver = resolver;
+        this(resolver, null);
+    }
+
+    public TypeSource(Resolver resolver, ClassIndex classIndex) {
+        this(resolver, classIndex, null);
+    }
+
+    /**
+     * @param resolver
+     *            the resolver for the classes owned by this type source
+     * @param classIndex
+     *            an index of the classes in the resolver, or <code>null</code>
+     * @param platformTypes
+     *            a shared type source to use for all classes that are not
+     *            found through the resolver, or <code>null</code>
+     */
+    public TypeSource(Resolver resolver, ClassIndex classIndex,
+            TypeSource platformTypes) {
+        this(resolver, classIndex, platformTypes, false);
+    }
+
+    private TypeSource(Resolver resolver, ClassIndex classIndex,
+            TypeSource platformTypes, boolean shared) {
+        this.resolver = Metrics.ENABLED ? new MeteredResolver(resolver)
+                : resolver;
+        this.unmeteredResolver = resolver;
+        this.classIndex = classIndex;
+        this.platformTypes = platformTypes;
+        this.shared = shared;
 
         for (Class<?> c : knownSerializable) {
             serialiableCache.put(getType(c), Boolean.TRUE);
         }
 
         for (String name : knownUnserializable) {
-            serialiableCache.put(getObjectType(name), Boolean.FALSE);
+            if (!shared || hasClass(name.replace('.', '/'))) {
+                serialiableCache.put(getObjectType(name), Boolean.FALSE);
+            }
         }
     }
 
@@ -64,19 +129,81 @@ public class TypeSource {
         return resolver;
     }
 
+    public ClassIndex getClassIndex() {
+        return classIndex;
+    }
+
+    ClassMetadata getClassMetadata(String internalName) throws IOException {
+        return ClassMetadata.find(resolver, classIndex, internalName);
+    }
+
+    ClassHeader getClassHeader(String internalName) throws IOException {
+        return ClassMetadata.findHeader(resolver, classIndex, internalName);
+    }
+
+    /**
+     * Creates a type source for the Vaadin and GWT classes on the classpath
+     * that can be shared by all type sources through their platformTypes.
+     * The types that every widget configuration needs are loaded right away.
+     * <p>
+     * The shared type source refuses to create types for classes it can't
+     * resolve itself, so that a type from an uploaded jar or a generated
+     * class can't end up in it by mistake and stay there for the lifetime of
+     * the application.
+     */
+    public static TypeSource createPlatformTypes(Resolver resolver) {
+        TypeSource typeSource = new TypeSource(resolver, null, null, true);
+        for (String name : platformTypeNames) {
+            try {
+                typeSource.getObjectType(name).getMethods();
+            } catch (RuntimeException e) {
+                System.out.println("Could not preload " + name);
+            }
+        }
+        return typeSource;
+    }
+
+    public boolean hasClass(String internalName) {
+        if (classIndex != null && classIndex.get(internalName) != null) {
+            return true;
+        }
+
+        try {
+            InputStream inputStream = unmeteredResolver
+                    .findClassStream(internalName);
+            if (inputStream == null) {
+                return false;
+            } else {
+                inputStream.close();
+                return true;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
     public ClassType getType(Class<?> type) {
         return (ClassType) getType(Type.getType(type));
     }
 
     public ClassType getObjectType(String fullyQualifiedName) {
-        return (ClassType) getType(Type.getObjectType(fullyQualifiedName
-                .replace('.', '/')));
+        return (ClassType) getRequestedType(Type
+                .getObjectType(fullyQualifiedName.replace('.', '/')));
     }
 
     public ApiType getTypeByInternalName(String name) {
         return getType(Type.getType(name));
     }
 
+    /**
+     * Gets the type of arrays of the given type. For an array type, this is
+     * an array type with one more dimension.
+     */
+    public ArrayType getArrayType(ApiType componentType) {
+        return (ArrayType) getRequestedType(Type.getType("["
+                + componentType.getType().getDescriptor()));
+    }
+
     public PrimitiveType getPrimitiveType(Primitive primitive) {
         return (PrimitiveType) getType(primitive.getType());
     }
@@ -85,138 +212,93 @@ public class TypeSource {
         return getPrimitiveType(Primitive.VOID);
     }
 
+    /*
+     * The shared platform types only create the types that are asked for by
+     * name if they can resolve the class themselves. Types referenced from
+     * the class files are always created, since a platform class may refer
+     * to an optional dependency that is not on the classpath.
+     */
+    private ApiType getRequestedType(Type type) {
+        if (shared && !cache.containsKey(type)) {
+            Type elementType = type.getSort() == Type.ARRAY ? type
+                    .getElementType() : type;
+            if (elementType.getSort() == Type.OBJECT
+                    && !hasClass(elementType.getInternalName())) {
+                throw new IllegalArgumentException(
+                        elementType.getClassName()
+                                + " is not a platform class");
+            }
+        }
+        return getType(type);
+    }
+
     private ApiType getType(Type type) {
         ApiType apiType = cache.get(type);
         if (apiType == null) {
+            cacheMisses.increment();
+            // Creating is cheap since a ClassType is loaded lazily
             apiType = createType(type);
-            cache.put(type, apiType);
+            ApiType existing = cache.putIfAbsent(type, apiType);
+            if (existing != null) {
+                apiType = existing;
+            }
+        } else {
+            cacheHits.increment();
         }
 
         return apiType;
     }
 
+    /*
+     * Primitive types and arrays of platform types are also taken from the
+     * platform types, so that each of them has exactly one instance no
+     * matter which type source it was requested from.
+     */
     private ApiType createType(Type type) {
         if (type.getSort() == Type.OBJECT) {
+            if (isPlatformType(type.getInternalName())) {
+                return platformTypes.getType(type);
+            }
             return new ClassType(type, this);
         } else if (type.getSort() == Type.ARRAY) {
+            Type elementType = type.getElementType();
+            if (platformTypes != null
+                    && (elementType.getSort() != Type.OBJECT || isPlatformType(elementType
+                            .getInternalName()))) {
+                return platformTypes.getType(type);
+            }
             return new ArrayType(type, this);
         } else {
+            if (platformTypes != null) {
+                return platformTypes.getType(type);
+            }
             return new PrimitiveType(type, this);
         }
     }
 
-    public boolean isSerializable(ApiType type) {
-        Boolean trivialSerializability = checkTrivialSerializability(type);
-        if (trivialSerializability != null) {
-            return trivialSerializability.booleanValue();
-        } else {
-            boolean serializability = resolveSerializability(type);
-            serialiableCache.put(type, Boolean.valueOf(serializability));
-            return serializability;
-        }
+    private boolean isPlatformType(String internalName) {
+        return platformTypes != null && !hasClass(internalName)
+                && platformTypes.hasClass(internalName);
     }
 
-    private Boolean checkTrivialSerializability(ApiType type) {
-        if (type instanceof PrimitiveType) {
-            return Boolean.TRUE;
-        } else {
-            return serialiableCache.get(type);
-        }
+    /**
+     * Checks whether a type is or extends another type. Each type knows its
+     * super classes ordered by depth, so the super type can only be at one
+     * position in the chain of the sub type.
+     */
+    public boolean isSubtype(ClassType type, ClassType superType) {
+        ClassType[] ancestors = type.getAncestors();
+        int depth = superType.getAncestors().length - 1;
+        return depth < ancestors.length && ancestors[depth] == superType;
     }
 
-    private boolean resolveSerializability(final ApiType type) {
-        HashSet<ApiType> checkedTypes = new HashSet<ApiType>();
-        HashSet<ApiType> queue = new HashSet<ApiType>();
-
-        queue.add(type);
-        while (!queue.isEmpty()) {
-            Iterator<ApiType> iterator = queue.iterator();
-            ApiType currentType = iterator.next();
-            iterator.remove();
-
-            if (currentType instanceof ArrayType) {
-                ArrayType arrayType = (ArrayType) currentType;
-                currentType = arrayType.getElementType();
-            }
-
-            Boolean trivialSerializability = checkTrivialSerializability(currentType);
-            if (trivialSerializability == Boolean.FALSE) {
-                // TODO could mark some types as not serializable if there would
-                // be a dependency graph to follow
-                serialiableCache.put(currentType, Boolean.FALSE);
-                return false;
-            } else if (trivialSerializability == null) {
-                if (!checkedTypes.add(currentType)) {
-                    continue;
-                }
-
-                // resolve
-                if (currentType instanceof ClassType) {
-                    ClassType classType = (ClassType) currentType;
-                    if (classType
-                            .isOrExtends(getObjectType("com.google.gwt.core.client.JavaScriptObject"))) {
-                        serialiableCache.put(currentType, Boolean.FALSE);
-                        return false;
-                    } else if (classType
-                            .isOrExtends(getObjectType("java.lang.Enum"))) {
-                        // Enum is basically always serializable (unless it has
-                        // JSO fields)
-                        continue;
-                    }
-                    Collection<ApiMethod> methods = classType.getMethods();
-                    HashSet<String> setters = new HashSet<String>();
-
-                    for (ApiMethod method : methods) {
-                        if (method.getName().startsWith("set")
-                                && method.getParameterTypes().size() == 1) {
-                            setters.add(StateFieldMethodAction
-                                    .getPropertyName(method));
-                        }
-                    }
-
-                    if (setters.isEmpty()) {
-                        // Clearly not a bean
-                        serialiableCache.put(currentType, Boolean.FALSE);
-                        return false;
-                    }
-
-                    boolean hasProperties = false;
-
-                    // Check the type of getters that have setters
-                    for (ApiMethod method : methods) {
-                        String name = method.getName();
-                        List<ApiType> parameterTypes = method
-                                .getParameterTypes();
-                        if ((name.startsWith("get") || name.startsWith("is"))
-                                && parameterTypes.isEmpty()
-                                && setters.remove(StateFieldMethodAction
-                                        .getPropertyName(method))) {
-                            ApiType returnType = method.getReturnType();
-                            if (!returnType.equals(getVoid())) {
-                                queue.add(returnType);
-                                hasProperties = true;
-                            }
-                        }
-                    }
-
-                    if (!hasProperties) {
-                        serialiableCache.put(currentType, Boolean.FALSE);
-                        return false;
-                    }
-                } else {
-                    throw new RuntimeException(
-                            "Only ClassType expected here, but got : "
-                                    + currentType.getClass());
-                }
-            }
-        }
-
-        // Queue empty without finding any problems -> all checked types OK
-        for (ApiType apiType : checkedTypes) {
-            serialiableCache.put(apiType, Boolean.TRUE);
+    public boolean isSerializable(ApiType type) {
+        if (type.getTypeSource() != this) {
+            return type.getTypeSource().isSerializable(type);
         }
 
-        return true;
+        return new SerializabilityAnalysis(this, serialiableCache)
+                .analyze(type);
     }
 
 }
@@ -0,0 +1,115 @@
+package org.vaadin.vrapper.compiler;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.IOUtils;
+import org.vaadin.vrapper.model.MethodAction;
+import org.vaadin.vrapper.model.MethodConfiguration;
+import org.vaadin.vrapper.model.StateFieldMethodAction;
+import org.vaadin.vrapper.model.WidgetConfiguration;
+import org.vaadin.vrapper.model.reflect.ClasspathResolver;
+import org.vaadin.vrapper.model.reflect.ListResolver;
+import org.vaadin.vrapper.model.reflect.Resolver;
+import org.vaadin.vrapper.model.reflect.TypeSource;
+
+/**
+ * Compiles generated wrappers to check that the generated code is valid
+ * against the Vaadin and GWT versions used by Vrapper.
+ */
+public class WrapperCompilerTest extends TestCase {
+
+    /*
+     * ASM 4 only reads class files up to Java 7, so newer JDK classes are
+     * presented as Java 7 classes. Only the headers and method signatures
+     * are read, and they haven't changed.
+     */
+    private static class Java7Resolver extends ClasspathResolver {
+        @Override
+        public InputStream findClassStream(String name) throws IOException {
+            InputStream inputStream = super.findClassStream(name);
+            if (inputStream == null) {
+                return null;
+            }
+            byte[] bytes;
+            try {
+                bytes = IOUtils.toByteArray(inputStream);
+            } finally {
+                inputStream.close();
+            }
+            if (bytes[6] != 0 || bytes[7] > 51) {
+                bytes[6] = 0;
+                bytes[7] = 51;
+            }
+            return new ByteArrayInputStream(bytes);
+        }
+    }
+
+    private static final TypeSource platformTypes = TypeSource
+            .createPlatformTypes(new Java7Resolver());
+
+    // Like the HTML widget session, which has no classes of its own
+    private static final TypeSource sessionTypes = new TypeSource(
+            new ListResolver(), null, platformTypes);
+
+    private static final String IMAGE = "com.google.gwt.user.client.ui.Image";
+
+    @Override
+    protected void setUp() throws Exception {
+        if (!WrapperCompiler.isAvailable()) {
+            fail("The tests must be run on a JDK");
+        }
+    }
+
+    public void testStateChangeHandlersCompile() throws IOException {
+        WidgetConfiguration configuration = createImageConfiguration();
+
+        assertCompiles(configuration);
+    }
+
+    public void testDeferredStateChangeHandlersCompile() throws IOException {
+        WidgetConfiguration configuration = createImageConfiguration();
+        configuration.getConnectorCodeConfiguration().setDeferUpdates(true);
+
+        assertCompiles(configuration);
+    }
+
+    /*
+     * Image has both resource URLs and setters with many parameters, which
+     * are the actions that add state change handlers to the connector.
+     */
+    private static WidgetConfiguration createImageConfiguration() {
+        WidgetConfiguration configuration = new WidgetConfiguration(
+                sessionTypes.getObjectType(IMAGE), sessionTypes);
+        for (MethodConfiguration methodConfiguration : configuration
+                .getMethodConfigurations()) {
+            if (methodConfiguration.getMethod().getParameterTypes().size() > 1) {
+                for (MethodAction action : methodConfiguration.getActions()) {
+                    if (action instanceof StateFieldMethodAction) {
+                        methodConfiguration.setSelectedAction(action);
+                    }
+                }
+            }
+        }
+        return configuration;
+    }
+
+    private static void assertCompiles(WidgetConfiguration configuration)
+            throws IOException {
+        Map<String, byte[]> classes = new WrapperCompiler(
+                Collections.<java.io.File> emptyList()).compile(configuration
+                .buildCode());
+
+        String connectorName = configuration.getConnectorCodeConfiguration()
+                .getPackageName()
+                + "."
+                + configuration.getConnectorCodeConfiguration().getClassName();
+        assertTrue(connectorName + " was not compiled",
+                classes.containsKey(connectorName));
+    }
+}
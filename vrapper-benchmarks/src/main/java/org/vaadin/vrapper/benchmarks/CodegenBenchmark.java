@@ -0,0 +1,85 @@
+package org.vaadin.vrapper.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.vaadin.vrapper.model.MethodConfiguration;
+import org.vaadin.vrapper.model.WidgetConfiguration;
+import org.vaadin.vrapper.model.reflect.ClassType;
+
+/**
+ * Configuring widgets and generating their code when all types are already
+ * loaded and analyzed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CodegenBenchmark {
+
+    @State(Scope.Thread)
+    public static class Configurations {
+        public List<ClassType> widgetTypes;
+
+        public List<WidgetConfiguration> configurations;
+
+        @Setup(Level.Trial)
+        public void setUp(WidgetJarState state) {
+            widgetTypes = state.getWidgetTypes(state.createTypeSource());
+            configurations = new ArrayList<WidgetConfiguration>();
+            for (ClassType widgetType : widgetTypes) {
+                WidgetConfiguration configuration = new WidgetConfiguration(
+                        widgetType);
+                evaluateActions(configuration);
+                configurations.add(configuration);
+            }
+        }
+    }
+
+    private static void evaluateActions(WidgetConfiguration configuration) {
+        for (MethodConfiguration methodConfiguration : configuration
+                .getMethodConfigurations()) {
+            methodConfiguration.getActions();
+        }
+    }
+
+    /**
+     * Creates the configurations and evaluates the actions of every method,
+     * since the actions are otherwise only evaluated when first used.
+     */
+    @Benchmark
+    public void createConfigurations(Configurations configurations,
+            Blackhole blackhole) {
+        for (ClassType widgetType : configurations.widgetTypes) {
+            WidgetConfiguration configuration = new WidgetConfiguration(
+                    widgetType);
+            evaluateActions(configuration);
+            blackhole.consume(configuration);
+        }
+    }
+
+    /**
+     * Generates the full source of every widget with the default actions.
+     */
+    @Benchmark
+    public void buildFullSource(Configurations configurations,
+            Blackhole blackhole) {
+        for (WidgetConfiguration configuration : configurations.configurations) {
+            blackhole.consume(configuration.buildFullSource());
+        }
+    }
+}
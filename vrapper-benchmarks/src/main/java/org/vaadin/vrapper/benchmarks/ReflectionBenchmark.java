@@ -0,0 +1,80 @@
+package org.vaadin.vrapper.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.vaadin.vrapper.model.reflect.ApiMethod;
+import org.vaadin.vrapper.model.reflect.ApiType;
+import org.vaadin.vrapper.model.reflect.ClassType;
+import org.vaadin.vrapper.model.reflect.TypeSource;
+
+/**
+ * Loading widget classes and analyzing the types used by their methods.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReflectionBenchmark {
+
+    /**
+     * A new type source with the methods of all widgets loaded but nothing
+     * analyzed yet.
+     */
+    @State(Scope.Thread)
+    public static class LoadedWidgets {
+        public TypeSource typeSource;
+
+        public List<ApiType> parameterTypes;
+
+        @Setup(Level.Invocation)
+        public void setUp(WidgetJarState state) {
+            typeSource = state.createTypeSource();
+            parameterTypes = new ArrayList<ApiType>();
+            for (ClassType widgetType : state.getWidgetTypes(typeSource)) {
+                for (ApiMethod method : widgetType.getMethods()) {
+                    parameterTypes.addAll(method.getParameterTypes());
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the methods of every widget, including the methods inherited
+     * from the platform classes, into a new type source.
+     */
+    @Benchmark
+    public void loadWidgets(WidgetJarState state, Blackhole blackhole) {
+        TypeSource typeSource = state.createTypeSource();
+        for (ClassType widgetType : state.getWidgetTypes(typeSource)) {
+            blackhole.consume(widgetType.getMethods());
+        }
+    }
+
+    /**
+     * Checks whether the parameter types of all widget methods are
+     * serializable. The beans of the jar are analyzed again for every
+     * invocation, while the platform types are only analyzed once.
+     */
+    @Benchmark
+    public void analyzeSerializability(LoadedWidgets widgets,
+            Blackhole blackhole) {
+        for (ApiType type : widgets.parameterTypes) {
+            blackhole.consume(widgets.typeSource.isSerializable(type));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.vaadin.vrapper.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.objectweb.asm.Type;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vaadin.vrapper.model.WidgetScanner;
+import org.vaadin.vrapper.model.reflect.ClassIndex;
+import org.vaadin.vrapper.model.reflect.MappedZipResolver;
+import org.vaadin.vrapper.model.reflect.TypeSource;
+
+/**
+ * Finding the widgets in an uploaded jar.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ScanBenchmark {
+
+    /**
+     * The executor that scans the classes, shared by all invocations like
+     * the scan executor of the application.
+     */
+    @State(Scope.Benchmark)
+    public static class ScanExecutor {
+        public int threads;
+        public ExecutorService executor;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            threads = Runtime.getRuntime().availableProcessors();
+            executor = Executors.newFixedThreadPool(threads);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            executor.shutdownNow();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class EmptyDirectory {
+        public File directory;
+
+        @Setup(Level.Invocation)
+        public void setUp() throws IOException {
+            directory = File.createTempFile("vrapper-index", "");
+            directory.delete();
+            directory.mkdirs();
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() throws IOException {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    /**
+     * Opens the jar and finds its widgets like the type selector of the
+     * application does, when the class index of the jar is already on disk.
+     */
+    @Benchmark
+    public List<Type> scanWidgets(WidgetJarState state,
+            ScanExecutor scanExecutor) throws IOException,
+            InterruptedException {
+        MappedZipResolver resolver = new MappedZipResolver(state.jar);
+        try {
+            TypeSource typeSource = new TypeSource(resolver,
+                    ClassIndex.forJar(state.jar, state.indexDirectory),
+                    state.platformTypes);
+            return new WidgetScanner(typeSource).findWidgetTypes(
+                    scanExecutor.executor, scanExecutor.threads);
+        } finally {
+            resolver.close();
+        }
+    }
+
+    /**
+     * Builds and writes the class index of a jar that hasn't been seen
+     * before.
+     */
+    @Benchmark
+    public ClassIndex indexJar(WidgetJarState state, EmptyDirectory directory)
+            throws IOException {
+        return ClassIndex.forJar(state.jar, directory.directory);
+    }
+}
@@ -0,0 +1,262 @@
+package org.vaadin.vrapper.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Generates a jar with synthetic widgets for the benchmarks. The same size
+ * and seed always give a jar with exactly the same bytes, so that results
+ * from different runs can be compared.
+ * <p>
+ * The jar contains widgets with setters, getters, multi-parameter setters
+ * and event handler methods, widgets that extend other widgets, beans that
+ * refer to each other in a cycle and classes that are not widgets at all.
+ */
+public class SyntheticWidgetJar implements Opcodes {
+    public static final long DEFAULT_SEED = 42;
+
+    private static final String PACKAGE = "org/vaadin/vrapper/synthetic/";
+
+    private static final String WIDGET = "com/google/gwt/user/client/ui/Widget";
+
+    private static final String[] HANDLERS = {
+            "com/google/gwt/event/dom/client/ClickHandler",
+            "com/google/gwt/event/dom/client/KeyUpHandler",
+            "com/google/gwt/event/logical/shared/ValueChangeHandler" };
+
+    private static final Type HANDLER_REGISTRATION = Type
+            .getObjectType("com/google/gwt/event/shared/HandlerRegistration");
+
+    // Fixed timestamp for the zip entries
+    private static final long ENTRY_TIME = 1388534400000L;
+
+    private final int widgetCount;
+    private final int methodsPerWidget;
+    private final Random random;
+
+    private final List<Type> propertyTypes = new ArrayList<Type>();
+
+    /**
+     * @param widgetCount
+     *            the number of widgets in the jar
+     * @param methodsPerWidget
+     *            the number of methods declared by each widget
+     * @param seed
+     *            the seed for choosing the methods of the widgets
+     */
+    public SyntheticWidgetJar(int widgetCount, int methodsPerWidget, long seed) {
+        this.widgetCount = widgetCount;
+        this.methodsPerWidget = methodsPerWidget;
+        random = new Random(seed);
+
+        propertyTypes.add(Type.INT_TYPE);
+        propertyTypes.add(Type.BOOLEAN_TYPE);
+        propertyTypes.add(Type.DOUBLE_TYPE);
+        propertyTypes.add(Type.getType(String.class));
+        propertyTypes.add(Type.getType(String[].class));
+        for (int i = 0; i < getBeanCount(); i++) {
+            propertyTypes.add(getBeanType(i));
+        }
+        for (int i = 0; i < getEnumCount(); i++) {
+            propertyTypes.add(getEnumType(i));
+        }
+    }
+
+    public static String getWidgetClassName(int index) {
+        return (PACKAGE + "client/VWidget" + index).replace('/', '.');
+    }
+
+    public void write(File file) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            write(out);
+            out.close();
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    public void write(OutputStream out) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(out);
+
+        for (int i = 0; i < getBeanCount(); i++) {
+            addEntry(zip, getBeanType(i), createBean(i));
+        }
+        for (int i = 0; i < getEnumCount(); i++) {
+            addEntry(zip, getEnumType(i), createEnum(getEnumType(i)));
+        }
+        for (int i = 0; i < widgetCount; i++) {
+            addEntry(zip, getWidgetType(i), createWidget(i));
+
+            // Some classes that the scanner should skip
+            Type helperType = Type.getObjectType(PACKAGE + "client/Helper" + i);
+            addEntry(zip, helperType, createHelper(helperType));
+        }
+
+        zip.finish();
+    }
+
+    private static void addEntry(ZipOutputStream zip, Type type, byte[] bytes)
+            throws IOException {
+        ZipEntry entry = new ZipEntry(type.getInternalName() + ".class");
+        entry.setTime(ENTRY_TIME);
+        zip.putNextEntry(entry);
+        zip.write(bytes);
+        zip.closeEntry();
+    }
+
+    private int getBeanCount() {
+        return Math.max(1, widgetCount / 4);
+    }
+
+    private int getEnumCount() {
+        return Math.max(1, widgetCount / 10);
+    }
+
+    private static Type getBeanType(int index) {
+        return Type.getObjectType(PACKAGE + "shared/Bean" + index);
+    }
+
+    private static Type getEnumType(int index) {
+        return Type.getObjectType(PACKAGE + "shared/Mode" + index);
+    }
+
+    private static Type getWidgetType(int index) {
+        return Type.getObjectType(PACKAGE + "client/VWidget" + index);
+    }
+
+    /*
+     * Each bean refers to the next one and the last one to the first one, so
+     * all beans are in the same strongly connected component.
+     */
+    private byte[] createBean(int index) {
+        Type type = getBeanType(index);
+        ClassWriter cw = createClass(type, "java/lang/Object");
+
+        addProperty(cw, type, "name", Type.getType(String.class));
+        addProperty(cw, type, "count", Type.INT_TYPE);
+        addProperty(cw, type, "next", getBeanType((index + 1) % getBeanCount()));
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static byte[] createEnum(Type type) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_6, ACC_PUBLIC | ACC_FINAL | ACC_SUPER | ACC_ENUM,
+                type.getInternalName(), null, "java/lang/Enum", null);
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static byte[] createHelper(Type type) {
+        ClassWriter cw = createClass(type, "java/lang/Object");
+        addMethod(cw, "help", Type.getType(String.class),
+                Type.getType(String.class));
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private byte[] createWidget(int index) {
+        // Every fifth widget extends the previous widget
+        String superName = WIDGET;
+        if (index % 5 == 4) {
+            superName = getWidgetType(index - 1).getInternalName();
+        }
+
+        Type type = getWidgetType(index);
+        ClassWriter cw = createClass(type, superName);
+
+        for (int i = 0; i < methodsPerWidget; i++) {
+            String name = "Property" + index + "x" + i;
+            int kind = random.nextInt(10);
+            if (kind < 6) {
+                addProperty(cw, type, name, randomPropertyType());
+            } else if (kind < 8) {
+                addMethod(cw, "set" + name, Type.VOID_TYPE,
+                        randomPropertyType(), randomPropertyType());
+            } else if (kind < 9) {
+                Type handlerType = Type.getObjectType(HANDLERS[random
+                        .nextInt(HANDLERS.length)]);
+                addMethod(cw, "add" + name + "Handler", HANDLER_REGISTRATION,
+                        handlerType);
+            } else {
+                addMethod(cw, "update" + name, Type.VOID_TYPE);
+            }
+        }
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private Type randomPropertyType() {
+        return propertyTypes.get(random.nextInt(propertyTypes.size()));
+    }
+
+    private static ClassWriter createClass(Type type, String superName) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_6, ACC_PUBLIC | ACC_SUPER, type.getInternalName(), null,
+                superName, null);
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null,
+                null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, superName, "<init>", "()V");
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        return cw;
+    }
+
+    private static void addProperty(ClassWriter cw, Type owner, String name,
+            Type type) {
+        String propertyName = Character.toUpperCase(name.charAt(0))
+                + name.substring(1);
+        addMethod(cw, "set" + propertyName, Type.VOID_TYPE, type);
+        addMethod(cw, (type == Type.BOOLEAN_TYPE ? "is" : "get")
+                + propertyName, type);
+    }
+
+    private static void addMethod(ClassWriter cw, String name,
+            Type returnType, Type... parameterTypes) {
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, name,
+                Type.getMethodDescriptor(returnType, parameterTypes), null,
+                null);
+        mv.visitCode();
+        switch (returnType.getSort()) {
+        case Type.VOID:
+            mv.visitInsn(RETURN);
+            break;
+        case Type.BOOLEAN:
+        case Type.INT:
+            mv.visitInsn(ICONST_0);
+            mv.visitInsn(IRETURN);
+            break;
+        case Type.DOUBLE:
+            mv.visitInsn(DCONST_0);
+            mv.visitInsn(DRETURN);
+            break;
+        default:
+            mv.visitInsn(ACONST_NULL);
+            mv.visitInsn(ARETURN);
+        }
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+}
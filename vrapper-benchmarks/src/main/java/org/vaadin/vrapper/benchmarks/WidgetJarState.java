@@ -0,0 +1,86 @@
+package org.vaadin.vrapper.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.vaadin.vrapper.model.reflect.ClassIndex;
+import org.vaadin.vrapper.model.reflect.ClassType;
+import org.vaadin.vrapper.model.reflect.ClasspathResolver;
+import org.vaadin.vrapper.model.reflect.MappedZipResolver;
+import org.vaadin.vrapper.model.reflect.TypeSource;
+
+/**
+ * A synthetic widget jar together with the platform types, shared by all
+ * benchmark threads. The platform types are loaded once like they are in the
+ * servlet context of the application.
+ */
+@State(Scope.Benchmark)
+public class WidgetJarState {
+
+    @Param({ "20", "200" })
+    public int widgets;
+
+    @Param({ "20" })
+    public int methodsPerWidget;
+
+    public File jar;
+
+    public File indexDirectory;
+
+    public TypeSource platformTypes;
+
+    private File directory;
+
+    private MappedZipResolver resolver;
+
+    private ClassIndex classIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = File.createTempFile("vrapper-benchmark", "");
+        directory.delete();
+        directory.mkdirs();
+
+        jar = new File(directory, "widgets.jar");
+        new SyntheticWidgetJar(widgets, methodsPerWidget,
+                SyntheticWidgetJar.DEFAULT_SEED).write(jar);
+
+        indexDirectory = new File(directory, "index");
+        platformTypes = TypeSource.createPlatformTypes(new ClasspathResolver());
+
+        resolver = new MappedZipResolver(jar);
+        classIndex = ClassIndex.forJar(jar, indexDirectory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        resolver.close();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    /**
+     * Creates a type source for the jar without any loaded types. The jar
+     * and its class index are only opened once per trial.
+     */
+    public TypeSource createTypeSource() {
+        return new TypeSource(resolver, classIndex, platformTypes);
+    }
+
+    public List<ClassType> getWidgetTypes(TypeSource typeSource) {
+        List<ClassType> widgetTypes = new ArrayList<ClassType>();
+        for (int i = 0; i < widgets; i++) {
+            widgetTypes.add(typeSource.getObjectType(SyntheticWidgetJar
+                    .getWidgetClassName(i)));
+        }
+        return widgetTypes;
+    }
+}
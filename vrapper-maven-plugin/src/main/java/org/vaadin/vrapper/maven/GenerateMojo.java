@@ -0,0 +1,337 @@
+package org.vaadin.vrapper.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+import org.objectweb.asm.Type;
+import org.vaadin.vrapper.batch.BatchGenerator;
+import org.vaadin.vrapper.model.WidgetScanner;
+import org.vaadin.vrapper.model.codegen.Code;
+import org.vaadin.vrapper.model.reflect.ApiMethod;
+import org.vaadin.vrapper.model.reflect.ApiType;
+import org.vaadin.vrapper.model.reflect.ArrayType;
+import org.vaadin.vrapper.model.reflect.ClassIndex;
+import org.vaadin.vrapper.model.reflect.ClassType;
+import org.vaadin.vrapper.model.reflect.ClasspathResolver;
+import org.vaadin.vrapper.model.reflect.DirectoryResolver;
+import org.vaadin.vrapper.model.reflect.ListResolver;
+import org.vaadin.vrapper.model.reflect.MappedZipResolver;
+import org.vaadin.vrapper.model.reflect.Resolver;
+import org.vaadin.vrapper.model.reflect.TypeSource;
+
+/**
+ * Generates wrappers for the widgets in the compiled classes of the project
+ * and in the configured dependencies, using the recommended action for each
+ * widget method. Classes are resolved from the compiled classes and the
+ * compile dependencies of the project, and from the plugin's own classpath
+ * for the Vaadin and GWT types.
+ * <p>
+ * The classes a widget is generated from are hashed together with the version
+ * of the generator, and widgets with the same hash as in the previous build
+ * are not generated again.
+ */
+@Mojo(name = "generate", defaultPhase = LifecyclePhase.GENERATE_SOURCES, requiresDependencyResolution = ResolutionScope.COMPILE, threadSafe = true)
+public class GenerateMojo extends AbstractMojo {
+    @Parameter(defaultValue = "${project}", readonly = true, required = true)
+    private MavenProject project;
+
+    @Parameter(defaultValue = "${plugin}", readonly = true, required = true)
+    private PluginDescriptor plugin;
+
+    /**
+     * The dependencies to generate wrappers for, as groupId:artifactId.
+     */
+    @Parameter
+    private List<String> libraries = new ArrayList<String>();
+
+    @Parameter(defaultValue = "${project.build.directory}/generated-sources/vrapper", required = true)
+    private File outputDirectory;
+
+    /**
+     * Directory for the class indexes and the hashes from the previous build.
+     */
+    @Parameter(defaultValue = "${project.build.directory}/vrapper", required = true)
+    private File stateDirectory;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        List<Resolver> resolvers = new ArrayList<Resolver>();
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            File classesDirectory = new File(project.getBuild()
+                    .getOutputDirectory());
+            resolvers.add(new DirectoryResolver(classesDirectory));
+            // Ordered and without duplicates
+            Collection<String> candidates = new LinkedHashSet<String>(
+                    findClassNames(classesDirectory));
+
+            for (Artifact artifact : project.getArtifacts()) {
+                File file = artifact.getFile();
+                if (file == null || !file.getName().endsWith(".jar")) {
+                    continue;
+                }
+                resolvers.add(new MappedZipResolver(file));
+                if (libraries.contains(artifact.getGroupId() + ":"
+                        + artifact.getArtifactId())) {
+                    candidates.addAll(ClassIndex.forJar(file,
+                            new File(stateDirectory, "index"))
+                            .getClassNames());
+                }
+            }
+
+            TypeSource typeSource = new TypeSource(
+                    new ListResolver(resolvers), null,
+                    TypeSource.createPlatformTypes(new ClasspathResolver()));
+
+            List<Type> widgetTypes = new WidgetScanner(typeSource,
+                    candidates).findWidgetTypes(executor, threads);
+            generate(typeSource, widgetTypes, executor);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Could not generate widgets", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted", e);
+        } finally {
+            executor.shutdownNow();
+            try {
+                new ListResolver(resolvers).close();
+            } catch (IOException e) {
+                getLog().warn("Could not close resolvers", e);
+            }
+        }
+
+        project.addCompileSourceRoot(outputDirectory.getAbsolutePath());
+    }
+
+    private static List<String> findClassNames(File classesDirectory) {
+        List<String> classNames = new ArrayList<String>();
+        if (classesDirectory.isDirectory()) {
+            String root = classesDirectory.getAbsolutePath();
+            for (File file : FileUtils.listFiles(classesDirectory,
+                    new String[] { "class" }, true)) {
+                String path = file.getAbsolutePath();
+                classNames.add(path.substring(root.length() + 1,
+                        path.length() - ".class".length()).replace(
+                        File.separatorChar, '/'));
+            }
+        }
+        return classNames;
+    }
+
+    private void generate(TypeSource typeSource, List<Type> widgetTypes,
+            ExecutorService executor) throws IOException, InterruptedException {
+        GenerationState previousState = GenerationState.read(stateDirectory);
+        GenerationState state = new GenerationState();
+
+        String generatorVersion = getGeneratorVersion();
+        Map<String, String> classHashes = new HashMap<String, String>();
+        List<Type> changedTypes = new ArrayList<Type>();
+        Map<Type, String> hashes = new LinkedHashMap<Type, String>();
+        for (Type widgetType : widgetTypes) {
+            String className = widgetType.getClassName();
+            String hash = hashInputs(typeSource, generatorVersion,
+                    widgetType, classHashes);
+            hashes.put(widgetType, hash);
+
+            if (hash.equals(previousState.getHash(className))
+                    && allExist(previousState.getPaths(className))) {
+                state.put(className, hash,
+                        previousState.getPaths(className));
+            } else {
+                changedTypes.add(widgetType);
+            }
+        }
+
+        List<Code> results = new BatchGenerator(typeSource).buildAll(
+                changedTypes, executor);
+
+        int failed = 0;
+        List<Code> selected = new ArrayList<Code>();
+        List<Type> selectedTypes = new ArrayList<Type>();
+        for (int i = 0; i < changedTypes.size(); i++) {
+            Type widgetType = changedTypes.get(i);
+            Code code = results.get(i);
+            if (code == null) {
+                failed++;
+                continue;
+            }
+
+            List<String> paths = BatchGenerator.getSourcePaths(code);
+            String conflict = state.findOwner(paths);
+            if (conflict != null) {
+                getLog().warn(
+                        "Skipping " + widgetType.getClassName()
+                                + " since it has the same class names as "
+                                + conflict);
+                continue;
+            }
+
+            state.put(widgetType.getClassName(), hashes.get(widgetType), paths);
+            selected.add(code);
+            selectedTypes.add(widgetType);
+        }
+
+        List<Code> written = BatchGenerator.writeAll(outputDirectory,
+                selected, executor);
+        for (int i = 0; i < selected.size(); i++) {
+            if (!written.contains(selected.get(i))) {
+                // Generated again in the next build
+                state.remove(selectedTypes.get(i).getClassName());
+                failed++;
+            }
+        }
+        int generated = written.size();
+
+        // Remove files that are no longer generated
+        for (String path : previousState.getAllPaths()) {
+            if (!state.getAllPaths().contains(path)) {
+                FileUtils.deleteQuietly(new File(outputDirectory, path));
+            }
+        }
+
+        state.write(stateDirectory);
+
+        getLog().info(
+                "Generated " + generated + " widgets, "
+                        + (widgetTypes.size() - changedTypes.size())
+                        + " unchanged, " + failed + " failed");
+    }
+
+    private boolean allExist(Collection<String> paths) {
+        if (paths == null) {
+            return false;
+        }
+        for (String path : paths) {
+            if (!new File(outputDirectory, path).isFile()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Identifies the generator and the Vaadin and GWT classes that the
+     * platform types are resolved from, which are all on the plugin
+     * classpath. Snapshots are also identified by the time they were built.
+     */
+    private String getGeneratorVersion() {
+        List<Artifact> artifacts = new ArrayList<Artifact>();
+        artifacts.add(plugin.getPluginArtifact());
+        artifacts.addAll(plugin.getArtifacts());
+
+        StringBuilder version = new StringBuilder();
+        for (Artifact artifact : artifacts) {
+            version.append(artifact.getId());
+            if (artifact.isSnapshot() && artifact.getFile() != null) {
+                version.append('@').append(artifact.getFile().lastModified());
+            }
+            version.append(' ');
+        }
+        return version.toString();
+    }
+
+    /*
+     * The generated code depends on the methods of the widget and its super
+     * classes, on the types used in the signatures of those methods, and on
+     * what the actions find in those types in turn, such as the events of
+     * handlers and the properties of beans. The classes of the project and
+     * its dependencies are followed transitively; the Vaadin and GWT classes
+     * are only hashed themselves, since everything they refer to is covered
+     * by the generator version.
+     */
+    private static String hashInputs(TypeSource typeSource,
+            String generatorVersion, Type widgetType,
+            Map<String, String> classHashes) throws IOException {
+        ClassType widgetClass = (ClassType) typeSource
+                .getTypeByInternalName(widgetType.getDescriptor());
+
+        Set<String> classNames = new LinkedHashSet<String>();
+        classNames.add(widgetClass.getClassName());
+        List<ClassType> pending = new ArrayList<ClassType>();
+        pending.add(widgetClass);
+        while (!pending.isEmpty()) {
+            ClassType classType = pending.remove(pending.size() - 1);
+            List<ApiType> dependencies = new ArrayList<ApiType>();
+            try {
+                for (ClassType type = classType.getSuperType(); type != null; type = type
+                        .getSuperType()) {
+                    dependencies.add(type);
+                }
+                for (ApiMethod method : classType.getMethods()) {
+                    dependencies.add(method.getReturnType());
+                    dependencies.addAll(method.getParameterTypes());
+                }
+            } catch (RuntimeException e) {
+                // A missing class is hashed as missing
+            }
+
+            for (ApiType type : dependencies) {
+                if (type instanceof ArrayType) {
+                    type = ((ArrayType) type).getElementType();
+                }
+                if (type instanceof ClassType
+                        && classNames.add(type.getClassName())
+                        && type.getTypeSource() == typeSource) {
+                    pending.add((ClassType) type);
+                }
+            }
+        }
+
+        MessageDigest digest = ClassIndex.createDigest();
+        digest.update(generatorVersion.getBytes("UTF-8"));
+        for (String className : classNames) {
+            String classHash = classHashes.get(className);
+            if (classHash == null) {
+                classHash = hashClass(typeSource.getResolver(), className);
+                classHashes.put(className, classHash);
+            }
+            digest.update(className.getBytes("UTF-8"));
+            digest.update(classHash.getBytes("UTF-8"));
+        }
+        return ClassIndex.toHex(digest.digest());
+    }
+
+    private static String hashClass(Resolver resolver, String className)
+            throws IOException {
+        InputStream inputStream = resolver.findClassStream(className.replace(
+                '.', '/'));
+        if (inputStream == null) {
+            // Vaadin and GWT classes come from the plugin classpath
+            inputStream = new ClasspathResolver().findClassStream(className
+                    .replace('.', '/'));
+        }
+        if (inputStream == null) {
+            return "missing";
+        }
+        try {
+            return ClassIndex.toHex(ClassIndex.createDigest().digest(
+                    IOUtils.toByteArray(inputStream)));
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+}
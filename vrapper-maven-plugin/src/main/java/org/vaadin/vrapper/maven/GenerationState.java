@@ -0,0 +1,121 @@
+package org.vaadin.vrapper.maven;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * The input hash and generated files of each widget, stored between builds.
+ * The file name contains a version so that changing the format or the
+ * generator invalidates old state.
+ */
+class GenerationState {
+    private static final String FILE_NAME = "widgets-1.properties";
+
+    private final Map<String, String> hashes = new HashMap<String, String>();
+    private final Map<String, Collection<String>> paths = new HashMap<String, Collection<String>>();
+    private final Map<String, String> owners = new HashMap<String, String>();
+
+    public String getHash(String widgetClass) {
+        return hashes.get(widgetClass);
+    }
+
+    public Collection<String> getPaths(String widgetClass) {
+        return paths.get(widgetClass);
+    }
+
+    public Set<String> getAllPaths() {
+        return owners.keySet();
+    }
+
+    /**
+     * @return the widget that has generated any of the paths, or
+     *         <code>null</code> if none of the paths are used
+     */
+    public String findOwner(Collection<String> paths) {
+        for (String path : paths) {
+            String owner = owners.get(path);
+            if (owner != null) {
+                return owner;
+            }
+        }
+        return null;
+    }
+
+    public void put(String widgetClass, String hash, Collection<String> paths) {
+        hashes.put(widgetClass, hash);
+        this.paths.put(widgetClass, paths);
+        for (String path : paths) {
+            owners.put(path, widgetClass);
+        }
+    }
+
+    public void remove(String widgetClass) {
+        hashes.remove(widgetClass);
+        Collection<String> removedPaths = paths.remove(widgetClass);
+        if (removedPaths != null) {
+            for (String path : removedPaths) {
+                owners.remove(path);
+            }
+        }
+    }
+
+    public static GenerationState read(File directory) throws IOException {
+        GenerationState state = new GenerationState();
+
+        File file = new File(directory, FILE_NAME);
+        if (!file.isFile()) {
+            return state;
+        }
+
+        Properties properties = new Properties();
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            properties.load(inputStream);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+
+        for (String widgetClass : properties.stringPropertyNames()) {
+            // hash followed by the generated paths
+            String[] values = properties.getProperty(widgetClass).split(" ");
+            Set<String> paths = new HashSet<String>(Arrays.asList(values)
+                    .subList(1, values.length));
+            state.put(widgetClass, values[0], paths);
+        }
+        return state;
+    }
+
+    public void write(File directory) throws IOException {
+        Properties properties = new Properties();
+        for (Map.Entry<String, String> entry : hashes.entrySet()) {
+            String widgetClass = entry.getKey();
+            StringBuilder value = new StringBuilder(entry.getValue());
+            for (String path : paths.get(widgetClass)) {
+                value.append(' ').append(path);
+            }
+            properties.setProperty(widgetClass, value.toString());
+        }
+
+        directory.mkdirs();
+        OutputStream outputStream = new FileOutputStream(new File(directory,
+                FILE_NAME));
+        try {
+            properties.store(outputStream, "Generated by vrapper-maven-plugin");
+        } finally {
+            IOUtils.closeQuietly(outputStream);
+        }
+    }
+}